@@ -15,16 +15,39 @@
  */
 package android.example.com.rottentomatillos;
 
+import android.annotation.TargetApi;
 import android.app.Application;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
+import android.example.com.rottentomatillos.data.TomatilloContract;
 import android.example.com.rottentomatillos.data.TomatilloContract.Movie;
+import android.example.com.rottentomatillos.data.TomatilloContract.RatingStats;
 import android.example.com.rottentomatillos.data.TomatilloProvider;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.test.ApplicationTestCase;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * This is a collection of tests for the associated Content Provider. See
  * {@link TomatilloProvider}
@@ -79,6 +102,91 @@ public class ApplicationTest extends ApplicationTestCase<Application> {
         }
     }
 
+    /**
+     * Tests {@link TomatilloProvider}'s query method with a column that does not exist.
+     */
+    public void testQueryUnknownColumn() {
+        insertDummyData(createDummyDataArray());
+        try {
+            Cursor cursor = mContext.getContentResolver().query(Movie.CONTENT_URI,
+                    new String[] { Movie._ID, "synopsis" }, null, null, null);
+            cursor.close();
+            fail("Query with an unknown column should throw IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // The expected case.
+        }
+    }
+
+    /**
+     * Tests {@link TomatilloProvider}'s count and existence check URIs.
+     */
+    public void testCountAndExists() {
+        assertEquals(0, querySingleValue(Movie.COUNT_URI, null, null));
+        assertEquals(0, querySingleValue(Movie.buildExistsUri(), null, null));
+
+        ContentValues[] values = createDummyDataArray();
+        mContext.getContentResolver().bulkInsert(Movie.CONTENT_URI, values);
+
+        assertEquals(values.length, querySingleValue(Movie.COUNT_URI, null, null));
+        assertEquals(1, querySingleValue(Movie.COUNT_URI, Movie.RATING + " = ?",
+                new String[]{"5"}));
+        assertEquals(1, querySingleValue(Movie.buildExistsUri("Pulp Fiction"), null, null));
+        assertEquals(0, querySingleValue(Movie.buildExistsUri("Pulp Fiction"),
+                Movie.RATING + " = ?", new String[]{"4"}));
+        assertEquals(0, querySingleValue(Movie.buildExistsUri("Up"), null, null));
+        assertEquals(1, querySingleValue(Movie.buildExistsUri(), Movie.RATING + " >= ?",
+                new String[]{"4"}));
+        assertEquals(Movie.COUNT_TYPE, mContext.getContentResolver().getType(Movie.COUNT_URI));
+
+        try {
+            mContext.getContentResolver().query(Movie.COUNT_URI, new String[]{Movie.TITLE},
+                    null, null, null);
+            fail("A count has no title column");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Tests that cancelling a slow query of {@link TomatilloProvider} stops it right away. The
+     * sort counts, for every movie, the movies that sort before it, which reads the whole table
+     * once per movie.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public void testQueryCancelled() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) return;
+        ContentValues[] values = new ContentValues[10000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = createDummyDataOneMovie("Movie " + i, 1 + i % 5);
+        }
+        mContext.getContentResolver().bulkInsert(Movie.CONTENT_URI, values);
+        String slowSortOrder = "(SELECT COUNT(*) FROM " + Movie.TABLE_NAME + " AS other WHERE " +
+                "other." + Movie.RATING + " + other." + Movie._ID + " < " + Movie.TABLE_NAME +
+                "." + Movie.RATING + " + " + Movie.TABLE_NAME + "." + Movie._ID + ")";
+
+        final CancellationSignal cancellationSignal = new CancellationSignal();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SystemClock.sleep(100);
+                cancellationSignal.cancel();
+            }
+        }).start();
+
+        long start = SystemClock.elapsedRealtime();
+        try {
+            // The resolver reads the row count, which runs the query.
+            Cursor cursor = mContext.getContentResolver().query(Movie.CONTENT_URI,
+                    new String[]{Movie._ID}, null, null, slowSortOrder, cancellationSignal);
+            cursor.close();
+            fail("The query should have been cancelled");
+        } catch (OperationCanceledException e) {
+            // Expected
+        }
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        assertTrue("Cancelled after " + elapsed + " ms", elapsed < 2000);
+    }
+
     /**
      * Tests {@link TomatilloProvider}'s getType method with
      * both datatypes.
@@ -110,6 +218,46 @@ public class ApplicationTest extends ApplicationTestCase<Application> {
         assertCorrectStoredValues(uri, values);
     }
 
+    /**
+     * Tests {@link TomatilloProvider}'s insert method with a movie that is already there.
+     */
+    public void testInsertDuplicate() {
+        ContentValues values = createDummyDataOneMovie("Pulp Fiction", 5);
+        mContext.getContentResolver().insert(Movie.CONTENT_URI, values);
+
+        Bundle before = getInsertStats();
+        Uri uri = mContext.getContentResolver().insert(Movie.CONTENT_URI, values);
+        Bundle after = getInsertStats();
+
+        assertNull("URI is not null, but it should be because the movie is already there", uri);
+        assertEquals(1, after.getLong(TomatilloContract.KEY_SKIPPED_INSERTS)
+                - before.getLong(TomatilloContract.KEY_SKIPPED_INSERTS));
+        assertResultCount(Movie.CONTENT_URI, 1);
+    }
+
+    /**
+     * Tests {@link TomatilloProvider}'s insert method with an upsert of a new movie and of a
+     * movie that is already there.
+     */
+    public void testUpsert() {
+        ContentValues values = createDummyDataOneMovie("Pulp Fiction", 5);
+        Uri insertedUri = mContext.getContentResolver().insert(Movie.buildUpsertUri(), values);
+        assertNotNull(insertedUri);
+        assertCorrectStoredValues(insertedUri, values);
+
+        Bundle before = getInsertStats();
+        ContentValues valuesUpdated = createDummyDataOneMovie("Pulp Fiction", 2);
+        Uri updatedUri = mContext.getContentResolver().insert(
+                Movie.buildUpsertUri(), valuesUpdated);
+        Bundle after = getInsertStats();
+
+        assertEquals(insertedUri, updatedUri);
+        assertCorrectStoredValues(updatedUri, valuesUpdated);
+        assertEquals(1, after.getLong(TomatilloContract.KEY_UPSERT_UPDATES)
+                - before.getLong(TomatilloContract.KEY_UPSERT_UPDATES));
+        assertResultCount(Movie.CONTENT_URI, 1);
+    }
+
     /**
      * Tests {@link TomatilloProvider}'s insert method with a null entry.
      */
@@ -200,6 +348,312 @@ public class ApplicationTest extends ApplicationTestCase<Application> {
         }
     }
 
+    /**
+     * Tests {@link TomatilloProvider}'s bulk insert method with movies that are already in the
+     * database.
+     */
+    public void testBulkInsertDuplicates() {
+        ContentValues[] values = createDummyDataArray();
+
+        int firstInserted = mContext.getContentResolver().bulkInsert(Movie.CONTENT_URI, values);
+        assertEquals(values.length, firstInserted);
+
+        // Inserting the same movies again should not insert or throw anything.
+        int secondInserted = mContext.getContentResolver().bulkInsert(Movie.CONTENT_URI, values);
+        assertEquals(0, secondInserted);
+        assertResultCount(Movie.CONTENT_URI, values.length);
+    }
+
+    /**
+     * Tests that {@link TomatilloProvider}'s bulk insert method drops titles repeated in the
+     * batch or already in the database, and inserts titles that were deleted again.
+     */
+    public void testBulkInsertDeduplicates() {
+        ContentResolver resolver = mContext.getContentResolver();
+        ContentValues[] values = createDummyDataArray();
+        assertEquals(values.length, resolver.bulkInsert(Movie.CONTENT_URI, values));
+
+        ContentValues[] batch = new ContentValues[]{
+                createDummyDataOneMovie("Up", 4),
+                createDummyDataOneMovie("Up", 2),
+                values[0],
+        };
+        assertEquals(1, resolver.bulkInsert(Movie.CONTENT_URI, batch));
+        assertResultCount(Movie.CONTENT_URI, values.length + 1);
+        // The first movie with a title is the one inserted.
+        assertResultCount(Movie.CONTENT_URI, null, Movie.TITLE + " = ? AND " + Movie.RATING +
+                " = ?", new String[]{"Up", "4"}, 1);
+
+        // The title is still in the provider's filter, but not in the database.
+        resolver.delete(Movie.CONTENT_URI, Movie.TITLE + " = ?", new String[]{"Up"});
+        assertEquals(1, resolver.bulkInsert(Movie.CONTENT_URI, batch));
+        assertResultCount(Movie.CONTENT_URI, values.length + 1);
+
+        // A movie without a rating is skipped, and does not stop a later one with its title.
+        ContentValues noRating = new ContentValues();
+        noRating.put(Movie.TITLE, "Heat");
+        assertEquals(1, resolver.bulkInsert(Movie.CONTENT_URI, new ContentValues[]{
+                noRating, createDummyDataOneMovie("Heat", 3)}));
+        assertResultCount(Movie.CONTENT_URI, values.length + 2);
+    }
+
+    /**
+     * Tests {@link TomatilloProvider}'s bulk insert method in chunks, where a failure keeps the
+     * chunks committed before it only with per chunk durability.
+     */
+    public void testBulkInsertChunked() {
+        ContentValues[] values = new ContentValues[5];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = createDummyDataOneMovie("Movie " + i, 1 + i);
+        }
+        Bundle before = getMetrics();
+        int inserted = mContext.getContentResolver().bulkInsert(
+                Movie.buildChunkedInsertUri(2, Movie.DURABILITY_PER_CHUNK), values);
+        assertEquals(values.length, inserted);
+        assertResultCount(Movie.CONTENT_URI, values.length);
+        // Two chunks of two movies and one of one.
+        assertEquals(3, getMetrics().getLong("bulkInsertChunk.movie." +
+                TomatilloContract.METRIC_CALLS) - before.getLong("bulkInsertChunk.movie." +
+                TomatilloContract.METRIC_CALLS));
+        deleteAllRecords();
+
+        // The last movie has an invalid rating, so the insert fails in its third chunk.
+        values[4] = createDummyDataOneMovie("Movie 4", 6);
+        try {
+            mContext.getContentResolver().bulkInsert(
+                    Movie.buildChunkedInsertUri(2, Movie.DURABILITY_ALL_OR_NOTHING), values);
+            fail("The invalid rating should have been rejected");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        assertResultCount(Movie.CONTENT_URI, 0);
+
+        try {
+            mContext.getContentResolver().bulkInsert(
+                    Movie.buildChunkedInsertUri(2, Movie.DURABILITY_PER_CHUNK), values);
+            fail("The invalid rating should have been rejected");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        assertResultCount(Movie.CONTENT_URI, 4);
+    }
+
+    /**
+     * Tests {@link TomatilloProvider}'s applyBatch method with inserts and an update.
+     */
+    public void testApplyBatch() throws Exception {
+        ContentValues[] values = createDummyDataArray();
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (ContentValues value : values) {
+            operations.add(ContentProviderOperation.newInsert(Movie.CONTENT_URI)
+                    .withValues(value).build());
+        }
+        operations.add(ContentProviderOperation.newUpdate(Movie.CONTENT_URI)
+                .withValue(Movie.RATING, 1).build());
+
+        ContentProviderResult[] results = mContext.getContentResolver().applyBatch(
+                TomatilloContract.CONTENT_AUTHORITY, operations);
+
+        assertEquals(operations.size(), results.length);
+        assertEquals(Integer.valueOf(values.length), results[values.length].count);
+        assertResultCount(Movie.CONTENT_URI, null, Movie.RATING + " = 1", null, values.length);
+    }
+
+    /**
+     * Tests that {@link TomatilloProvider}'s applyBatch method does not apply any operation when
+     * one of them fails.
+     */
+    public void testApplyBatchRollsBack() {
+        ContentValues[] values = createDummyDataArray();
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(Movie.CONTENT_URI)
+                .withValues(values[0]).build());
+        // Inserting the same movie twice fails the batch.
+        operations.add(ContentProviderOperation.newInsert(Movie.CONTENT_URI)
+                .withValues(values[0]).build());
+
+        try {
+            mContext.getContentResolver().applyBatch(
+                    TomatilloContract.CONTENT_AUTHORITY, operations);
+            fail("Batch with a duplicate insert should throw OperationApplicationException");
+        } catch (OperationApplicationException e) {
+            // The expected case.
+        } catch (RemoteException e) {
+            fail("Unexpected RemoteException " + e);
+        }
+        assertResultCount(Movie.CONTENT_URI, 0);
+    }
+
+    /**
+     * Tests that every change made through {@link TomatilloProvider} is either notified or
+     * merged into another notification.
+     */
+    public void testChangeNotificationStats() throws Exception {
+        Bundle before = getNotificationStats();
+
+        ContentValues[] values = createDummyDataArray();
+        insertDummyData(values);
+        // Wait for the notification window to end.
+        Thread.sleep(4 * mContext.getResources().getInteger(
+                R.integer.change_notification_window_ms) + 100);
+
+        Bundle after = getNotificationStats();
+        long dispatched = after.getLong(TomatilloContract.KEY_NOTIFICATIONS_DISPATCHED)
+                - before.getLong(TomatilloContract.KEY_NOTIFICATIONS_DISPATCHED);
+        long suppressed = after.getLong(TomatilloContract.KEY_NOTIFICATIONS_SUPPRESSED)
+                - before.getLong(TomatilloContract.KEY_NOTIFICATIONS_SUPPRESSED);
+        assertEquals(values.length, dispatched + suppressed);
+        assertTrue("At least one notification should be sent", dispatched >= 1);
+    }
+
+    /**
+     * Tests {@link TomatilloProvider}'s query method with a minimum rating.
+     */
+    public void testQueryMinRating() {
+        ContentValues[] values = createDummyDataArray();
+        insertDummyData(values);
+
+        assertResultCount(Movie.buildMinRatingUri(5), 1);
+        assertResultCount(Movie.buildMinRatingUri(1), values.length);
+
+        // The movies should come back highest rating first.
+        Cursor cursor = mContext.getContentResolver().query(Movie.buildMinRatingUri(1),
+                new String[] { Movie.RATING }, null, null, null);
+        try {
+            int previousRating = Integer.MAX_VALUE;
+            while (cursor.moveToNext()) {
+                assertTrue(cursor.getInt(0) <= previousRating);
+                previousRating = cursor.getInt(0);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Tests {@link TomatilloProvider}'s query method with a title search.
+     */
+    public void testQuerySearch() {
+        ContentValues[] values = createDummyDataArray();
+        insertDummyData(values);
+
+        // Every word is matched as a prefix, in any case.
+        assertResultCount(Movie.buildSearchUri("pulp"), 1);
+        assertResultCount(Movie.buildSearchUri("FORR gu"), 1);
+        assertResultCount(Movie.buildSearchUri("fiction gump"), 0);
+        // Punctuation is not read as query syntax.
+        assertResultCount(Movie.buildSearchUri("\"-*"), 0);
+
+        // Updated titles are searchable right away.
+        ContentValues valuesUpdated = new ContentValues();
+        valuesUpdated.put(Movie.TITLE, "Jackie Brown");
+        mContext.getContentResolver().update(Movie.CONTENT_URI, valuesUpdated,
+                Movie.TITLE + " = ?", new String[] { values[0].getAsString(Movie.TITLE) });
+        assertResultCount(Movie.buildSearchUri("pulp"), 0);
+        assertResultCount(Movie.buildSearchUri("jack"), 1);
+
+        deleteAllRecords();
+        assertResultCount(Movie.buildSearchUri("gump"), 0);
+    }
+
+    /**
+     * Tests that {@link TomatilloProvider}'s rating statistics follow inserts, updates and
+     * deletes.
+     */
+    public void testRatingStats() {
+        ContentValues[] values = createDummyDataArray();
+        Uri[] uris = insertDummyData(values);
+        assertRatingStats(2, 4.5, new int[] { 0, 0, 0, 1, 1 });
+
+        ContentValues valuesUpdated = new ContentValues();
+        valuesUpdated.put(Movie.RATING, 1);
+        mContext.getContentResolver().update(uris[0], valuesUpdated, null, null);
+        assertRatingStats(2, 2.5, new int[] { 1, 0, 0, 1, 0 });
+
+        mContext.getContentResolver().delete(uris[1], null, null);
+        assertRatingStats(1, 1, new int[] { 1, 0, 0, 0, 0 });
+
+        deleteAllRecords();
+        assertRatingStats(0, 0, new int[] { 0, 0, 0, 0, 0 });
+    }
+
+    /**
+     * Tests that {@link TomatilloProvider}'s cache of single movies answers repeated lookups and
+     * never returns a movie that has changed.
+     */
+    public void testMovieCache() {
+        ContentValues[] values = createDummyDataArray();
+        Uri[] uris = insertDummyData(values);
+
+        Bundle before = getCacheStats();
+        assertCorrectStoredValues(uris[0], values[0]);
+        assertCorrectStoredValues(uris[0], values[0]);
+        Bundle after = getCacheStats();
+        assertTrue("The second lookup should be a cache hit",
+                after.getInt(TomatilloContract.KEY_CACHE_HITS)
+                        > before.getInt(TomatilloContract.KEY_CACHE_HITS));
+
+        ContentValues valuesUpdated = new ContentValues();
+        valuesUpdated.put(Movie.RATING, 1);
+        mContext.getContentResolver().update(uris[0], valuesUpdated, null, null);
+        assertCorrectStoredValues(uris[0], valuesUpdated);
+
+        // Updating with a selection has to drop the cached movie too.
+        valuesUpdated.put(Movie.RATING, 2);
+        mContext.getContentResolver().update(Movie.CONTENT_URI, valuesUpdated, null, null);
+        assertCorrectStoredValues(uris[0], valuesUpdated);
+
+        mContext.getContentResolver().delete(uris[0], null, null);
+        assertResultCount(uris[0], 0);
+    }
+
+    /**
+     * Tests that {@link TomatilloProvider}'s metrics count calls and rows.
+     */
+    public void testMetrics() {
+        Bundle before = getMetrics();
+        ContentValues[] values = createDummyDataArray();
+        mContext.getContentResolver().bulkInsert(Movie.CONTENT_URI, values);
+        assertResultCount(Movie.CONTENT_URI, values.length);
+        Bundle after = getMetrics();
+
+        assertEquals(1, after.getLong("bulkInsert.movie." + TomatilloContract.METRIC_CALLS)
+                - before.getLong("bulkInsert.movie." + TomatilloContract.METRIC_CALLS));
+        assertEquals(values.length,
+                after.getLong("bulkInsert.movie." + TomatilloContract.METRIC_ROWS)
+                        - before.getLong("bulkInsert.movie." + TomatilloContract.METRIC_ROWS));
+        assertTrue(after.getLong("query.movie." + TomatilloContract.METRIC_CALLS) >= 1);
+        assertTrue(after.getLong("query.movie." + TomatilloContract.METRIC_P99_MICROS)
+                >= after.getLong("query.movie." + TomatilloContract.METRIC_P50_MICROS));
+    }
+
+    /**
+     * Tests {@link TomatilloProvider}'s query method with pages ordered by ID.
+     */
+    public void testQueryPages() {
+        ContentValues[] values = createDummyDataArray();
+        insertDummyData(values);
+
+        long firstId = assertPage(Movie.buildPageUri(1), values[0]);
+        long secondId = assertPage(Movie.buildPageUri(1, firstId), values[1]);
+        assertResultCount(Movie.buildPageUri(1, secondId), 0);
+    }
+
+    /**
+     * Tests {@link TomatilloProvider}'s query method with pages ordered by rating.
+     */
+    public void testQueryRatingPages() {
+        ContentValues[] values = createDummyDataArray();
+        insertDummyData(values);
+
+        // The dummy data is in order of rating, highest first.
+        long firstId = assertPage(Movie.buildRatingPageUri(1), values[0]);
+        long secondId = assertPage(Movie.buildRatingPageUri(1,
+                values[0].getAsInteger(Movie.RATING), firstId), values[1]);
+        assertResultCount(Movie.buildRatingPageUri(1,
+                values[1].getAsInteger(Movie.RATING), secondId), 0);
+    }
+
     /**
      * Tests {@link TomatilloProvider}'s delete method by
      * deleting the last entry in the table.
@@ -309,6 +763,112 @@ public class ApplicationTest extends ApplicationTestCase<Application> {
         }
     }
 
+    /**
+     * Tests {@link TomatilloProvider}'s export Uri in both formats.
+     */
+    public void testExport() throws Exception {
+        ContentValues[] values = createDummyDataArray();
+        insertDummyData(values);
+
+        List<String> csv = readLines(Movie.buildExportUri(Movie.EXPORT_FORMAT_CSV));
+        assertEquals(values.length + 1, csv.size());
+        assertEquals(Movie._ID + "," + Movie.TITLE + "," + Movie.RATING, csv.get(0));
+
+        List<String> ndjson = readLines(Movie.buildExportUri(Movie.EXPORT_FORMAT_NDJSON));
+        assertEquals(values.length, ndjson.size());
+        for (String line : ndjson) {
+            assertTrue(line, line.startsWith("{\"" + Movie._ID + "\":"));
+        }
+    }
+
+    /**
+     * Tests {@link TomatilloProvider}'s importCatalog method with a CSV file and with an NDJSON
+     * export of the movies it imported.
+     */
+    public void testImportCatalog() throws Exception {
+        File csv = new File(mContext.getCacheDir(), "import.csv");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(csv), "UTF-8");
+        try {
+            writer.write("title,rating\nOldboy,5\n\"Pan's, Labyrinth\",4\nPonyo,1\nBad,9\n");
+        } finally {
+            writer.close();
+        }
+
+        try {
+            Bundle before = getMetrics();
+            Bundle result = mContext.getContentResolver().call(Movie.CONTENT_URI,
+                    TomatilloContract.METHOD_IMPORT_CATALOG, Uri.fromFile(csv).toString(), null);
+            assertEquals(4, result.getLong(TomatilloContract.KEY_ROWS_READ));
+            assertEquals(3, result.getLong(TomatilloContract.KEY_ROWS_IMPORTED));
+            assertFalse(result.getBoolean(TomatilloContract.KEY_CANCELLED));
+            assertResultCount(Movie.CONTENT_URI, 3);
+            // The import is recorded once, with the movies it imported.
+            Bundle after = getMetrics();
+            assertEquals(1, after.getLong("importCatalog.movie." + TomatilloContract.METRIC_CALLS)
+                    - before.getLong("importCatalog.movie." + TomatilloContract.METRIC_CALLS));
+            assertEquals(3, after.getLong("importCatalog.movie." + TomatilloContract.METRIC_ROWS)
+                    - before.getLong("importCatalog.movie." + TomatilloContract.METRIC_ROWS));
+        } finally {
+            csv.delete();
+        }
+
+        // Importing an export of the same movies adds nothing.
+        ParcelFileDescriptor export = mContext.getContentResolver().openFileDescriptor(
+                Movie.buildExportUri(Movie.EXPORT_FORMAT_NDJSON), "r");
+        Bundle extras = new Bundle();
+        extras.putParcelable(TomatilloContract.KEY_FILE_DESCRIPTOR, export);
+        extras.putString(TomatilloContract.KEY_IMPORT_FORMAT, Movie.EXPORT_FORMAT_NDJSON);
+        Bundle result = mContext.getContentResolver().call(Movie.CONTENT_URI,
+                TomatilloContract.METHOD_IMPORT_CATALOG, null, extras);
+        assertEquals(3, result.getLong(TomatilloContract.KEY_ROWS_READ));
+        assertEquals(0, result.getLong(TomatilloContract.KEY_ROWS_IMPORTED));
+    }
+
+    /**
+     * Tests {@link TomatilloProvider}'s setRating method.
+     */
+    public void testSetRating() {
+        ContentValues[] values = createDummyDataArray();
+        Uri[] uris = insertDummyData(values);
+
+        assertEquals(1, setRating(ContentUris.parseId(uris[0]), 2));
+        ContentValues valuesUpdated = new ContentValues();
+        valuesUpdated.put(Movie.RATING, 2);
+        assertCorrectStoredValues(uris[0], valuesUpdated);
+
+        // A movie that does not exist is not changed.
+        assertEquals(0, setRating(ContentUris.parseId(uris[1]) + 1000, 2));
+
+        try {
+            setRating(ContentUris.parseId(uris[0]), 6);
+            fail("setRating with invalid rating should throw IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // The expected case.
+        }
+    }
+
+    /**
+     * Tests {@link TomatilloProvider}'s setRatings method, which sets several ratings at once.
+     */
+    public void testSetRatings() {
+        ContentValues[] values = createDummyDataArray();
+        Uri[] uris = insertDummyData(values);
+
+        Bundle extras = new Bundle();
+        extras.putLongArray(TomatilloContract.KEY_MOVIE_IDS, new long[] {
+                ContentUris.parseId(uris[0]), ContentUris.parseId(uris[1])});
+        extras.putIntArray(TomatilloContract.KEY_RATINGS, new int[] {3, 4});
+        Bundle result = mContext.getContentResolver().call(Movie.CONTENT_URI,
+                TomatilloContract.METHOD_SET_RATINGS, null, extras);
+        assertEquals(2, result.getInt(TomatilloContract.KEY_ROWS_CHANGED));
+
+        ContentValues valuesUpdated = new ContentValues();
+        valuesUpdated.put(Movie.RATING, 3);
+        assertCorrectStoredValues(uris[0], valuesUpdated);
+        valuesUpdated.put(Movie.RATING, 4);
+        assertCorrectStoredValues(uris[1], valuesUpdated);
+    }
+
     /**
      * Tests {@link TomatilloProvider}'s update by trying to change an entry to an invalid value.
      */
@@ -344,6 +904,85 @@ public class ApplicationTest extends ApplicationTestCase<Application> {
                 null);
     }
 
+    /**
+     * Helper method to read the change notification counters of the provider.
+     */
+    private Bundle getNotificationStats() {
+        return mContext.getContentResolver().call(Movie.CONTENT_URI,
+                TomatilloContract.METHOD_GET_NOTIFICATION_STATS, null, null);
+    }
+
+    /**
+     * Helper method to set a rating with the provider's setRating method, which returns the
+     * number of rows changed.
+     */
+    private int setRating(long id, int rating) {
+        Bundle extras = new Bundle();
+        extras.putLong(TomatilloContract.KEY_MOVIE_ID, id);
+        extras.putInt(TomatilloContract.KEY_RATING, rating);
+        Bundle result = mContext.getContentResolver().call(Movie.CONTENT_URI,
+                TomatilloContract.METHOD_SET_RATING, null, extras);
+        return result.getInt(TomatilloContract.KEY_ROWS_CHANGED);
+    }
+
+    /**
+     * Helper method to read every line of the stream at uri.
+     */
+    private List<String> readLines(Uri uri) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                mContext.getContentResolver().openInputStream(uri), "UTF-8"));
+        try {
+            List<String> lines = new ArrayList<String>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+            return lines;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Helper method to read the single value of a count or existence check.
+     */
+    private long querySingleValue(Uri uri, String selection, String[] selectionArgs) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, selection,
+                selectionArgs, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            assertEquals(1, cursor.getColumnCount());
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Helper method to read the metrics of the provider.
+     */
+    private Bundle getMetrics() {
+        return mContext.getContentResolver().call(Movie.CONTENT_URI,
+                TomatilloContract.METHOD_GET_METRICS, null, null);
+    }
+
+    /**
+     * Helper method to read the insert counters of the provider.
+     */
+    private Bundle getInsertStats() {
+        return mContext.getContentResolver().call(Movie.CONTENT_URI,
+                TomatilloContract.METHOD_GET_INSERT_STATS, null, null);
+    }
+
+    /**
+     * Helper method to read the counters of the provider's movie cache.
+     */
+    private Bundle getCacheStats() {
+        return mContext.getContentResolver().call(Movie.CONTENT_URI,
+                TomatilloContract.METHOD_GET_CACHE_STATS, null, null);
+    }
+
     /**
      * Helper method to create one row of data in the database to help perform further tests.
      */
@@ -401,6 +1040,49 @@ public class ApplicationTest extends ApplicationTestCase<Application> {
         assertResultCount(uri, null, null, null, expectedCount);
     }
 
+    /**
+     * Helper method to test the rating statistics. The average is not checked when there are no
+     * movies.
+     */
+    private void assertRatingStats(int count, double average, int[] ratingCounts) {
+        Cursor cursor = mContext.getContentResolver().query(RatingStats.CONTENT_URI,
+                new String[] {
+                        RatingStats._COUNT, RatingStats.AVERAGE_RATING,
+                        RatingStats.RATING_1_COUNT, RatingStats.RATING_2_COUNT,
+                        RatingStats.RATING_3_COUNT, RatingStats.RATING_4_COUNT,
+                        RatingStats.RATING_5_COUNT },
+                null, null, null);
+        try {
+            assertEquals("Row count " + cursor.getCount(), 1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(count, cursor.getInt(0));
+            if (count > 0) {
+                assertEquals(average, cursor.getDouble(1), 0.001);
+            }
+            for (int i = 0; i < ratingCounts.length; i++) {
+                assertEquals("Count of rating " + (i + 1), ratingCounts[i], cursor.getInt(2 + i));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Helper method to test that a page holds only the movie in values, and returns its ID.
+     */
+    private long assertPage(Uri pageUri, ContentValues values) {
+        Cursor cursor = mContext.getContentResolver().query(pageUri,
+                new String[] { Movie._ID, Movie.TITLE }, null, null, null);
+        try {
+            assertEquals("Row count " + cursor.getCount(), 1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(values.getAsString(Movie.TITLE), cursor.getString(1));
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
     /**
      * Helper method to test whether the object stored at the URI has the same values as the
      * ContentValues passed as a parameter.
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.rottentomatillos;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.example.com.rottentomatillos.data.TomatilloContract;
+import android.example.com.rottentomatillos.data.TomatilloContract.Movie;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.v7.widget.RecyclerView;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+
+/**
+ * This times the launch of {@link MainActivity}, up to the list showing every movie. The built-in
+ * catalog comes with the prebuilt database that TomatilloDBHelper installs, so a launch must not
+ * insert anything, which is checked with the provider's metrics.
+ */
+public class MainActivityStartupTest extends ActivityInstrumentationTestCase2<MainActivity> {
+    private static final String LOG_TAG = MainActivityStartupTest.class.getSimpleName();
+
+    private static final long LOAD_TIMEOUT_MILLIS = 30000;
+
+    public MainActivityStartupTest() {
+        super(MainActivity.class);
+    }
+
+    /**
+     * Tests that a launch shows every movie in the database without inserting any.
+     */
+    public void testStartLoadsListWithoutInserting() throws Exception {
+        Context context = getInstrumentation().getTargetContext();
+        // Other tests may have emptied the database, which would leave nothing to wait for.
+        if (countMovies(context) == 0) {
+            ContentValues values = new ContentValues();
+            values.put(Movie.TITLE, "Oldboy");
+            values.put(Movie.RATING, 5);
+            context.getContentResolver().insert(Movie.CONTENT_URI, values);
+        }
+        int movieCount = countMovies(context);
+        Bundle before = getMetrics(context);
+
+        long start = SystemClock.uptimeMillis();
+        MainActivity activity = getActivity();
+        getInstrumentation().waitForIdleSync();
+        long startedMillis = SystemClock.uptimeMillis() - start;
+
+        RecyclerView list = (RecyclerView) activity.findViewById(R.id.tomatillo_list_view);
+        while (getItemCount(list) != movieCount) {
+            assertTrue("The list was not loaded in time",
+                    SystemClock.uptimeMillis() - start < LOAD_TIMEOUT_MILLIS);
+            Thread.sleep(10);
+        }
+        long loadedMillis = SystemClock.uptimeMillis() - start;
+        Log.i(LOG_TAG, "Started in " + startedMillis + " ms, showed " + movieCount +
+                " movies in " + loadedMillis + " ms");
+
+        Bundle after = getMetrics(context);
+        for (String operation : new String[]{"insert", "bulkInsert"}) {
+            String key = operation + ".movie." + TomatilloContract.METRIC_CALLS;
+            assertEquals("The launch called " + operation, before.getLong(key),
+                    after.getLong(key));
+        }
+    }
+
+    private int getItemCount(final RecyclerView list) {
+        final int[] count = new int[1];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                count[0] = list.getAdapter().getItemCount();
+            }
+        });
+        return count[0];
+    }
+
+    private static int countMovies(Context context) {
+        Cursor cursor = context.getContentResolver().query(
+                Movie.CONTENT_URI, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static Bundle getMetrics(Context context) {
+        return context.getContentResolver().call(Movie.CONTENT_URI,
+                TomatilloContract.METHOD_GET_METRICS, null, null);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.rottentomatillos;
+
+import android.database.MatrixCursor;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.view.ViewGroup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests that {@link MovieList} reports only the rows that changed.
+ */
+public class MovieListTest extends AndroidTestCase {
+
+    /**
+     * Tests that a changed rating only rebinds its own row.
+     */
+    public void testRatingChange() {
+        MovieList oldList = createList(new long[]{1, 2, 3}, new int[]{1, 2, 3});
+        MovieList newList = createList(new long[]{1, 2, 3}, new int[]{1, 5, 3}, oldList);
+
+        assertUpdates(newList, oldList, "changed 1");
+    }
+
+    /**
+     * Tests that inserted and removed rows are reported as ranges.
+     */
+    public void testInsertAndRemove() {
+        MovieList oldList = createList(new long[]{1, 2, 3}, new int[]{1, 2, 3});
+
+        MovieList inserted =
+                createList(new long[]{1, 2, 4, 5, 3}, new int[]{1, 2, 4, 5, 3}, oldList);
+        assertUpdates(inserted, oldList, "inserted 2+2");
+
+        MovieList removed = createList(new long[]{1, 3}, new int[]{1, 3}, oldList);
+        assertUpdates(removed, oldList, "removed 1+1");
+    }
+
+    /**
+     * Tests that a list compared against a different list than the one shown rebinds everything.
+     */
+    public void testUnrelatedList() {
+        MovieList oldList = createList(new long[]{1, 2}, new int[]{1, 2});
+        MovieList otherList = createList(new long[]{1, 2}, new int[]{1, 2});
+        MovieList newList = createList(new long[]{1, 2}, new int[]{1, 3}, otherList);
+
+        assertUpdates(newList, oldList, "changed all");
+    }
+
+    private static MovieList createList(long[] ids, int[] ratings) {
+        return createList(ids, ratings, null);
+    }
+
+    private static MovieList createList(long[] ids, int[] ratings, MovieList previous) {
+        MatrixCursor cursor = new MatrixCursor(MovieList.PROJECTION, ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            cursor.addRow(new Object[] { ids[i], "Movie " + ids[i], ratings[i] });
+        }
+        try {
+            return MovieList.fromCursor(cursor, previous);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void assertUpdates(MovieList list, MovieList shown, String... expected) {
+        RecordingAdapter adapter = new RecordingAdapter();
+        list.dispatchUpdates(adapter, shown);
+        assertEquals(Arrays.asList(expected), adapter.mUpdates);
+    }
+
+    /**
+     * An adapter that records the changes it is told about.
+     */
+    private static class RecordingAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+        final List<String> mUpdates = new ArrayList<String>();
+
+        RecordingAdapter() {
+            registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+                @Override
+                public void onChanged() {
+                    mUpdates.add("changed all");
+                }
+
+                @Override
+                public void onItemRangeChanged(int positionStart, int itemCount) {
+                    for (int i = 0; i < itemCount; i++) {
+                        mUpdates.add("changed " + (positionStart + i));
+                    }
+                }
+
+                @Override
+                public void onItemRangeInserted(int positionStart, int itemCount) {
+                    mUpdates.add("inserted " + positionStart + "+" + itemCount);
+                }
+
+                @Override
+                public void onItemRangeRemoved(int positionStart, int itemCount) {
+                    mUpdates.add("removed " + positionStart + "+" + itemCount);
+                }
+            });
+        }
+
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int type) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int getItemCount() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.rottentomatillos;
+
+import android.app.Application;
+import android.content.ContentValues;
+import android.database.CrossProcessCursor;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.example.com.rottentomatillos.data.TomatilloContract.Movie;
+import android.example.com.rottentomatillos.data.TomatilloDBHelper;
+import android.example.com.rottentomatillos.data.TomatilloProvider;
+import android.os.SystemClock;
+import android.test.ApplicationTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * These are benchmarks for {@link TomatilloProvider}. They do not assert anything, they log their
+ * results so that runs on different devices and builds can be compared.
+ */
+public class ProviderBenchmark extends ApplicationTestCase<Application> {
+    private static final String LOG_TAG = ProviderBenchmark.class.getSimpleName();
+
+    /**
+     * The number of rows inserted in each benchmark run.
+     */
+    private static final int[] ROW_COUNTS = new int[]{10000, 100000, 1000000};
+
+    /**
+     * Rows are built and inserted in batches of this size so that a million rows of
+     * ContentValues never have to be held in memory at once.
+     */
+    private static final int BATCH_SIZE = 10000;
+
+    /**
+     * The number of rows imported while readers query the database in the reader latency
+     * benchmark, and the number of reader threads.
+     */
+    private static final int IMPORT_ROW_COUNT = 100000;
+    private static final int READER_THREAD_COUNT = 2;
+
+    /**
+     * The number of movies queried in the projection benchmark, and the length their titles are
+     * padded to so that the title stands in for a wide column.
+     */
+    private static final int PROJECTION_ROW_COUNT = 20000;
+    private static final int PROJECTION_TITLE_LENGTH = 200;
+    private static final int PROJECTION_PASSES = 5;
+
+    /**
+     * A separate database file, so that write-ahead logging can be switched on and off without
+     * touching the provider's database.
+     */
+    private static final String BENCHMARK_DATABASE_NAME = "tomatillo_benchmark.db";
+
+    public ProviderBenchmark() {
+        super(Application.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    /**
+     * Compares the rows per second of {@link TomatilloProvider#bulkInsert} against the
+     * insertOrThrow loop it used to run.
+     */
+    public void testBulkInsertThroughput() {
+        for (int rowCount : ROW_COUNTS) {
+            long legacyMillis = timeLegacyInsert(rowCount);
+            deleteAllRecords();
+            long bulkMillis = timeBulkInsert(rowCount);
+            deleteAllRecords();
+
+            Log.i(LOG_TAG, String.format("bulkInsert %d rows: legacy %.0f rows/s, compiled %.0f rows/s",
+                    rowCount, rowsPerSecond(rowCount, legacyMillis),
+                    rowsPerSecond(rowCount, bulkMillis)));
+        }
+    }
+
+    /**
+     * Measures how long single movie queries take on other threads while a 100k row import runs
+     * in one transaction, with and without write-ahead logging.
+     */
+    public void testReaderLatencyDuringImport() throws Exception {
+        for (boolean writeAheadLogging : new boolean[]{false, true}) {
+            long[] latencies = measureReaderLatencyDuringImport(writeAheadLogging);
+            Log.i(LOG_TAG, String.format(
+                    "Reader latency during %d row import, WAL %b: p50 %.2f ms, p99 %.2f ms, %d reads",
+                    IMPORT_ROW_COUNT, writeAheadLogging,
+                    percentileMillis(latencies, 0.50), percentileMillis(latencies, 0.99),
+                    latencies.length));
+        }
+    }
+
+    /**
+     * Compares filling cursor windows with the columns the movie list binds, which are every
+     * column a query can return, against only the _ID and rating. Logs the time to fill the
+     * first window, as getCount does, and the rows that fit in a window, which is how many
+     * windows, and so how much memory, reading every row takes.
+     */
+    public void testProjectionWindowFill() {
+        StringBuilder padding = new StringBuilder();
+        while (padding.length() < PROJECTION_TITLE_LENGTH) {
+            padding.append(' ');
+        }
+        for (int offset = 0; offset < PROJECTION_ROW_COUNT; offset += BATCH_SIZE) {
+            ContentValues[] values = createMovies(offset,
+                    Math.min(BATCH_SIZE, PROJECTION_ROW_COUNT - offset));
+            for (ContentValues value : values) {
+                String title = value.getAsString(Movie.TITLE);
+                value.put(Movie.TITLE, title + padding.substring(title.length()));
+            }
+            mContext.getContentResolver().bulkInsert(Movie.CONTENT_URI, values);
+        }
+
+        String[][] projections = new String[][]{
+                MovieList.PROJECTION, new String[]{Movie._ID, Movie.RATING}};
+        String[] names = new String[]{"list", "narrow"};
+        for (int i = 0; i < projections.length; i++) {
+            long fillNanos = Long.MAX_VALUE;
+            int rowsPerWindow = -1;
+            for (int pass = 0; pass < PROJECTION_PASSES; pass++) {
+                long start = System.nanoTime();
+                Cursor cursor = mContext.getContentResolver().query(
+                        Movie.CONTENT_URI, projections[i], null, null, null);
+                try {
+                    cursor.getCount();
+                    fillNanos = Math.min(fillNanos, System.nanoTime() - start);
+                    rowsPerWindow = rowsPerWindow(cursor);
+                } finally {
+                    cursor.close();
+                }
+            }
+            Log.i(LOG_TAG, String.format(
+                    "Projection %s, %d rows: first window %.2f ms, %d rows per window, %d windows",
+                    names[i], PROJECTION_ROW_COUNT, fillNanos / 1000000.0, rowsPerWindow,
+                    rowsPerWindow > 0 ? (PROJECTION_ROW_COUNT + rowsPerWindow - 1) / rowsPerWindow
+                            : -1));
+        }
+    }
+
+    /**
+     * Returns how many rows of cursor fit in one cursor window, or -1 if the cursor cannot fill
+     * a window of its own.
+     */
+    @SuppressWarnings("deprecation")
+    private static int rowsPerWindow(Cursor cursor) {
+        if (!(cursor instanceof CrossProcessCursor)) return -1;
+        // The window is the default size, the same as the windows the query fills.
+        CursorWindow window = new CursorWindow(false);
+        try {
+            ((CrossProcessCursor) cursor).fillWindow(0, window);
+            return window.getNumRows();
+        } finally {
+            window.close();
+        }
+    }
+
+    /**
+     * Runs the import on this thread and the readers on their own threads, and returns the
+     * sorted latencies of every read in nanoseconds.
+     */
+    private long[] measureReaderLatencyDuringImport(boolean writeAheadLogging)
+            throws InterruptedException {
+        mContext.deleteDatabase(BENCHMARK_DATABASE_NAME);
+        TomatilloDBHelper helper =
+                new TomatilloDBHelper(mContext, BENCHMARK_DATABASE_NAME, writeAheadLogging);
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        try {
+            // Give the readers some movies to find.
+            insertMovies(db, 0, BATCH_SIZE);
+
+            final AtomicBoolean importing = new AtomicBoolean(true);
+            final List<Long> latencies = Collections.synchronizedList(new ArrayList<Long>());
+            Thread[] readers = new Thread[READER_THREAD_COUNT];
+            for (int i = 0; i < readers.length; i++) {
+                final Random random = new Random(i);
+                readers[i] = new Thread() {
+                    @Override
+                    public void run() {
+                        while (importing.get()) {
+                            String id = String.valueOf(1 + random.nextInt(BATCH_SIZE));
+                            long start = System.nanoTime();
+                            Cursor cursor = db.query(Movie.TABLE_NAME, null, Movie._ID + " = ?",
+                                    new String[]{id}, null, null, null);
+                            try {
+                                cursor.getCount();
+                            } finally {
+                                cursor.close();
+                            }
+                            latencies.add(System.nanoTime() - start);
+                        }
+                    }
+                };
+                readers[i].start();
+            }
+
+            insertMovies(db, BATCH_SIZE, IMPORT_ROW_COUNT);
+            importing.set(false);
+            for (Thread reader : readers) {
+                reader.join();
+            }
+
+            long[] sorted = new long[latencies.size()];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = latencies.get(i);
+            }
+            Arrays.sort(sorted);
+            return sorted;
+        } finally {
+            helper.close();
+            mContext.deleteDatabase(BENCHMARK_DATABASE_NAME);
+        }
+    }
+
+    /**
+     * Inserts rowCount movies through the ContentResolver and returns the time taken.
+     */
+    private long timeBulkInsert(int rowCount) {
+        long start = SystemClock.elapsedRealtime();
+        for (int offset = 0; offset < rowCount; offset += BATCH_SIZE) {
+            mContext.getContentResolver().bulkInsert(Movie.CONTENT_URI,
+                    createMovies(offset, Math.min(BATCH_SIZE, rowCount - offset)));
+        }
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    /**
+     * Inserts rowCount movies with one insertOrThrow per row, which is how bulkInsert used to
+     * work, and returns the time taken.
+     */
+    private long timeLegacyInsert(int rowCount) {
+        TomatilloDBHelper helper = new TomatilloDBHelper(mContext);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        try {
+            long start = SystemClock.elapsedRealtime();
+            for (int offset = 0; offset < rowCount; offset += BATCH_SIZE) {
+                ContentValues[] values = createMovies(offset, Math.min(BATCH_SIZE, rowCount - offset));
+                db.beginTransaction();
+                try {
+                    for (ContentValues value : values) {
+                        try {
+                            db.insertOrThrow(Movie.TABLE_NAME, null, value);
+                        } catch (SQLiteConstraintException e) {
+                            // The movie is already there.
+                        }
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+            return SystemClock.elapsedRealtime() - start;
+        } finally {
+            helper.close();
+        }
+    }
+
+    /**
+     * Helper Methods are below
+     */
+
+    /**
+     * Helper method to create count movies with unique titles, starting at offset.
+     */
+    private static ContentValues[] createMovies(int offset, int count) {
+        ContentValues[] values = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = new ContentValues();
+            values[i].put(Movie.TITLE, "Movie " + (offset + i));
+            values[i].put(Movie.RATING, 1 + (offset + i) % 5);
+        }
+        return values;
+    }
+
+    /**
+     * Helper method to insert count movies with unique titles, starting at offset, directly into
+     * db in a single transaction.
+     */
+    private static void insertMovies(SQLiteDatabase db, int offset, int count) {
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + Movie.TABLE_NAME + " (" +
+                Movie.TITLE + ", " + Movie.RATING + ") VALUES (?, ?)");
+        db.beginTransaction();
+        try {
+            for (int i = offset; i < offset + count; i++) {
+                insert.bindString(1, "Movie " + i);
+                insert.bindLong(2, 1 + i % 5);
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+    }
+
+    /**
+     * Returns the value at the percentile p, between 0 and 1, of sorted nanosecond values in
+     * milliseconds.
+     */
+    private static double percentileMillis(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int index = Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1000000.0;
+    }
+
+    private static double rowsPerSecond(int rowCount, long millis) {
+        return rowCount * 1000.0 / Math.max(1, millis);
+    }
+
+    /**
+     * Helper method to delete all of the record in the database.
+     */
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(Movie.CONTENT_URI, null, null);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.rottentomatillos;
+
+import android.database.MatrixCursor;
+import android.os.Debug;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.view.View;
+
+/**
+ * This is a benchmark for binding rows in {@link RatingAdapter}. It does not assert anything, it
+ * logs the binds per second and the allocations per bind.
+ */
+public class RatingAdapterBenchmark extends AndroidTestCase {
+    private static final String LOG_TAG = RatingAdapterBenchmark.class.getSimpleName();
+
+    private static final int ROW_COUNT = 1000;
+    private static final int PASSES = 20;
+
+    /**
+     * Binds every row of a list to the same view holder, as happens while flinging through a list.
+     */
+    public void testBindThroughput() {
+        MatrixCursor cursor = new MatrixCursor(MovieList.PROJECTION, ROW_COUNT);
+        for (int i = 0; i < ROW_COUNT; i++) {
+            cursor.addRow(new Object[] { (long) i + 1, "Movie " + i, 1 + i % 5 });
+        }
+        MovieList list = MovieList.fromCursor(cursor, null);
+        cursor.close();
+
+        RatingWriteQueue writeQueue = new RatingWriteQueue(mContext.getContentResolver(), 0);
+        try {
+            RatingAdapter adapter = new RatingAdapter(mContext, writeQueue);
+            adapter.swapList(list);
+            RecyclerView parent = new RecyclerView(mContext);
+            parent.setLayoutManager(new LinearLayoutManager(mContext));
+            RatingAdapter.ViewHolder viewHolder = adapter.onCreateViewHolder(parent, 0);
+
+            // Warm up before measuring.
+            bindAll(adapter, viewHolder);
+
+            Debug.startAllocCounting();
+            int allocationsBefore = Debug.getThreadAllocCount();
+            long start = System.nanoTime();
+            for (int pass = 0; pass < PASSES; pass++) {
+                bindAll(adapter, viewHolder);
+            }
+            long elapsedNanos = System.nanoTime() - start;
+            int allocations = Debug.getThreadAllocCount() - allocationsBefore;
+            Debug.stopAllocCounting();
+
+            int binds = ROW_COUNT * PASSES;
+            Log.i(LOG_TAG, String.format(
+                    "onBindViewHolder: %.0f binds/s, %.2f allocations per bind",
+                    binds * 1e9 / elapsedNanos, (double) allocations / binds));
+        } finally {
+            writeQueue.quit();
+        }
+    }
+
+    private void bindAll(RatingAdapter adapter, RatingAdapter.ViewHolder viewHolder) {
+        for (int i = 0; i < ROW_COUNT; i++) {
+            adapter.onBindViewHolder(viewHolder, i);
+        }
+    }
+}
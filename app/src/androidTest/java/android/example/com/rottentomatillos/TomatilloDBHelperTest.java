@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.rottentomatillos;
+
+import android.app.Application;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.example.com.rottentomatillos.data.TomatilloContract.Movie;
+import android.example.com.rottentomatillos.data.TomatilloContract.RatingStats;
+import android.example.com.rottentomatillos.data.TomatilloDBHelper;
+import android.test.ApplicationTestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the prebuilt database that the generateCatalogDatabase task in app/build.gradle builds,
+ * which copies the schema of {@link TomatilloDBHelper} by hand.
+ */
+public class TomatilloDBHelperTest extends ApplicationTestCase<Application> {
+    /**
+     * The prebuilt database the helper installs on first launch.
+     */
+    private static final String PREBUILT_ASSET = "databases/tomatillo_database.db";
+
+    // Separate database files, so that the provider's database is not touched.
+    private static final String PREBUILT_DATABASE_NAME = "tomatillo_prebuilt_test.db";
+    private static final String CREATED_DATABASE_NAME = "tomatillo_created_test.db";
+
+    public TomatilloDBHelperTest() {
+        super(Application.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(PREBUILT_DATABASE_NAME);
+        mContext.deleteDatabase(CREATED_DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(PREBUILT_DATABASE_NAME);
+        mContext.deleteDatabase(CREATED_DATABASE_NAME);
+        super.tearDown();
+    }
+
+    /**
+     * Tests that the prebuilt database, once opened and upgraded by the helper, has the same
+     * tables, indexes and triggers as a database built by onCreate.
+     */
+    public void testPrebuiltSchemaMatchesOnCreate() throws IOException {
+        copyAsset(PREBUILT_ASSET, mContext.getDatabasePath(PREBUILT_DATABASE_NAME));
+        TomatilloDBHelper prebuiltHelper =
+                new TomatilloDBHelper(mContext, PREBUILT_DATABASE_NAME, false);
+        TomatilloDBHelper createdHelper =
+                new TomatilloDBHelper(mContext, CREATED_DATABASE_NAME, false);
+        try {
+            assertEquals(readSchema(createdHelper.getReadableDatabase()),
+                    readSchema(prebuiltHelper.getReadableDatabase()));
+        } finally {
+            prebuiltHelper.close();
+            createdHelper.close();
+        }
+    }
+
+    /**
+     * Tests that the search index and the rating statistics of the prebuilt database were filled
+     * from its movies.
+     */
+    public void testPrebuiltDataIsConsistent() throws IOException {
+        copyAsset(PREBUILT_ASSET, mContext.getDatabasePath(PREBUILT_DATABASE_NAME));
+        TomatilloDBHelper helper = new TomatilloDBHelper(mContext, PREBUILT_DATABASE_NAME, false);
+        try {
+            SQLiteDatabase db = helper.getReadableDatabase();
+            long movieCount = DatabaseUtils.longForQuery(db,
+                    "SELECT COUNT(*) FROM " + Movie.TABLE_NAME, null);
+            assertTrue("The prebuilt database has no movies", movieCount > 0);
+            assertEquals(movieCount, DatabaseUtils.longForQuery(db,
+                    "SELECT COUNT(*) FROM " + Movie.SEARCH_TABLE_NAME, null));
+            assertEquals(movieCount, DatabaseUtils.longForQuery(db,
+                    "SELECT SUM(" + RatingStats.MOVIE_COUNT + ") FROM " + RatingStats.TABLE_NAME,
+                    null));
+        } finally {
+            helper.close();
+        }
+    }
+
+    /**
+     * Returns the type, name, table and SQL of every schema object of db, in a fixed order. The
+     * SQL is kept as it was written, so its spacing is made uniform before it is compared.
+     */
+    private static List<String> readSchema(SQLiteDatabase db) {
+        List<String> schema = new ArrayList<String>();
+        // Android adds android_metadata to every database, and SQLite names its own objects.
+        Cursor cursor = db.rawQuery("SELECT type, name, tbl_name, sql FROM sqlite_master " +
+                "WHERE name != 'android_metadata' AND name NOT LIKE 'sqlite\\_%' ESCAPE '\\' " +
+                "ORDER BY type, name", null);
+        try {
+            while (cursor.moveToNext()) {
+                String sql = cursor.isNull(3) ? "" : cursor.getString(3)
+                        .replaceAll("\\s+", " ")
+                        .replaceAll(" ?([(),;]) ?", "$1")
+                        .trim();
+                schema.add(cursor.getString(0) + " " + cursor.getString(1) + " on " +
+                        cursor.getString(2) + ": " + sql);
+            }
+        } finally {
+            cursor.close();
+        }
+        return schema;
+    }
+
+    private void copyAsset(String asset, File file) throws IOException {
+        file.getParentFile().mkdirs();
+        InputStream in = mContext.getAssets().open(asset);
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -15,102 +15,71 @@
  */
 package android.example.com.rottentomatillos;
 
-import android.content.ContentValues;
-import android.database.Cursor;
-import android.example.com.rottentomatillos.data.TomatilloContract.Movie;
 import android.os.Bundle;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v7.app.ActionBarActivity;
-import android.widget.ListView;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 
 /**
  * This is the main activity for the RottenTomatillos App.
  */
-public class MainActivity extends ActionBarActivity implements LoaderManager.LoaderCallbacks<Cursor> {
+public class MainActivity extends ActionBarActivity implements LoaderManager.LoaderCallbacks<MovieList> {
     public static final String LOG_TAG = MainActivity.class.getSimpleName();
 
     // Identifies a particular Loader being used in this component.
     private static final int CURSOR_LOADER_ID = 0;
 
     private RatingAdapter mAdapter;
+    private RatingWriteQueue mWriteQueue;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
-        insertData();
 
-        // Get the ListView which will be populated with the TomatilloProvider data.
-        ListView listView = (ListView) findViewById(R.id.tomatillo_list_view);
+        // Get the RecyclerView which will be populated with the TomatilloProvider data.
+        RecyclerView recyclerView = (RecyclerView) findViewById(R.id.tomatillo_list_view);
+        recyclerView.setLayoutManager(new LinearLayoutManager(this));
 
-        // Note that the cursor is null because data will be loaded in via a loader
-        mAdapter = new RatingAdapter(this, null, 0, CURSOR_LOADER_ID);
+        // Ratings picked by the user are written in the background.
+        mWriteQueue = new RatingWriteQueue(getContentResolver(),
+                getResources().getInteger(R.integer.rating_write_delay_ms));
 
-        // Attach the adapter to the ListView.
-        listView.setAdapter(mAdapter);
+        // Note that the adapter starts empty because data will be loaded in via a loader
+        mAdapter = new RatingAdapter(this, mWriteQueue);
 
-        // Initializes the loader.
+        // Attach the adapter to the RecyclerView.
+        recyclerView.setAdapter(mAdapter);
+
+        // Initializes the loader. The built-in movies are already in the database, which
+        // TomatilloDBHelper installs from the APK when the loader first opens it.
         getSupportLoaderManager().initLoader(CURSOR_LOADER_ID, null, this);
     }
 
-    /**
-     * Inserts dummy data into the movie rating database.
-     * To keep the code simple for this toy app we are inserting the data here.
-     * Normally this should be done on a separate thread, using {@link android.os.AsyncTask}
-     * or similar method.
-     */
-    private void insertData() {
-        // Create the values for 10 movies and insert them in the database
-        String[] titles = new String[] {
-                "Eternal Sunshine of the Spotless Mind",
-                "Oldboy",
-                "Ponyo",
-                "Frozen",
-                "Let the Right One In",
-                "Amelie",
-                "Pan's Labyrinth",
-                "City of God",
-                "Akira",
-                "Some Like It Hot"};
-        int[] ratings = new int[]{5,5,1,2,3,5,5,4,3,4};
-        ContentValues[] ratingsArr = new ContentValues[ratings.length];
-
-        // Go through the arrays and make all of the movies, finally insert into the database.
-        for (int i = 0; i < titles.length; i++) {
-            ratingsArr[i] = new ContentValues();
-            ratingsArr[i].put(Movie.TITLE, titles[i]);
-            ratingsArr[i].put(Movie.RATING, ratings[i]);
-        }
-
-        getContentResolver().bulkInsert(Movie.CONTENT_URI, ratingsArr);
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Write any ratings still queued before the queue's thread stops.
+        mWriteQueue.quit();
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        // When the LoaderManager initalizes the loader, this code is run. A CursorLoader is
-        // specifically designed to load cursors from ContentProviders.
-        return new CursorLoader(
-                this,
-                Movie.CONTENT_URI,
-                null,
-                null,
-                null,
-                null
-        );
+    public Loader<MovieList> onCreateLoader(int id, Bundle args) {
+        // When the LoaderManager initalizes the loader, this code is run. A MovieListLoader
+        // reads the movies from the ContentProvider and works out what changed in the background.
+        return new MovieListLoader(this);
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        mAdapter.changeCursor(data);
+    public void onLoadFinished(Loader<MovieList> loader, MovieList data) {
+        mAdapter.swapList(data);
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
+    public void onLoaderReset(Loader<MovieList> loader) {
         // This method is meant to clean up a previous loader's data.
-        // For a CursorAdapter, you need to clear the adapter's reference to the Cursor.
-        // This prevents memory leaks.
-        mAdapter.changeCursor(null);
+        mAdapter.swapList(null);
     }
 }
\ No newline at end of file
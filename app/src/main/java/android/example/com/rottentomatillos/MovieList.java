@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.rottentomatillos;
+
+import android.database.Cursor;
+import android.example.com.rottentomatillos.data.TomatilloContract.Movie;
+import android.support.v7.widget.RecyclerView;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+/**
+ * This is an unchanging snapshot of the movies shown in the list, read out of a cursor on a
+ * background thread. Each snapshot also knows how it differs from the snapshot it replaced, so
+ * {@link RatingAdapter} only has to rebind the rows that changed.
+ * <p>
+ * The difference is found by matching the rows at the start and at the end of both snapshots by
+ * {@link Movie#_ID}. Matched rows whose title or rating changed are rebound, and the rows between
+ * the matched ends are removed and inserted. A rating change keeps every movie in place, so only
+ * its row is rebound.
+ */
+public class MovieList {
+    /**
+     * The columns to query for a snapshot.
+     */
+    public static final String[] PROJECTION = new String[]{Movie._ID, Movie.TITLE, Movie.RATING};
+
+    // Indices of the columns of PROJECTION.
+    private static final int COL_ID = 0;
+    private static final int COL_TITLE = 1;
+    private static final int COL_RATING = 2;
+
+    private final long[] mIds;
+    private final String[] mTitles;
+    private final int[] mRatings;
+
+    /**
+     * The snapshot this one was compared against, or null. It is only needed to check that the
+     * adapter still shows it, so it is weakly held, and the snapshots before it can be collected
+     * rather than chaining every list ever loaded together.
+     */
+    private final WeakReference<MovieList> mPrevious;
+    /**
+     * The number of rows of the snapshot this one was compared against.
+     */
+    private final int mPreviousCount;
+    /**
+     * The number of rows at the start of both snapshots with the same ids.
+     */
+    private int mPrefixLength;
+    /**
+     * The number of rows at the end of both snapshots with the same ids, not counting the prefix.
+     */
+    private int mSuffixLength;
+    /**
+     * The positions, in the previous snapshot, of the matched rows whose contents changed.
+     */
+    private int[] mChangedPositions;
+
+    private MovieList(long[] ids, String[] titles, int[] ratings, MovieList previous) {
+        mIds = ids;
+        mTitles = titles;
+        mRatings = ratings;
+        mPrevious = previous != null ? new WeakReference<MovieList>(previous) : null;
+        mPreviousCount = previous != null ? previous.getCount() : 0;
+        if (previous != null) {
+            diff(previous);
+        }
+    }
+
+    /**
+     * Reads a snapshot out of a cursor queried with {@link #PROJECTION} and compares it against
+     * the previous snapshot. This does the slow work, so call it off the UI thread.
+     * @param previous The snapshot the adapter shows now, or null.
+     */
+    public static MovieList fromCursor(Cursor cursor, MovieList previous) {
+        int count = cursor.getCount();
+        long[] ids = new long[count];
+        String[] titles = new String[count];
+        int[] ratings = new int[count];
+        cursor.moveToPosition(-1);
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(COL_ID);
+            titles[i] = cursor.getString(COL_TITLE);
+            ratings[i] = cursor.getInt(COL_RATING);
+        }
+        return new MovieList(ids, titles, ratings, previous);
+    }
+
+    public int getCount() {
+        return mIds.length;
+    }
+
+    public long getId(int position) {
+        return mIds[position];
+    }
+
+    public String getTitle(int position) {
+        return mTitles[position];
+    }
+
+    public int getRating(int position) {
+        return mRatings[position];
+    }
+
+    /**
+     * Tells adapter which rows changed, assuming it showed shown until now. If this snapshot was
+     * not compared against shown, every row is rebound.
+     */
+    public void dispatchUpdates(RecyclerView.Adapter adapter, MovieList shown) {
+        if (shown == null || mPrevious == null || shown != mPrevious.get()) {
+            adapter.notifyDataSetChanged();
+            return;
+        }
+
+        // The changed positions are in the previous snapshot, so they go before the rows are
+        // moved around.
+        for (int position : mChangedPositions) {
+            adapter.notifyItemChanged(position);
+        }
+        int removed = mPreviousCount - mPrefixLength - mSuffixLength;
+        int inserted = getCount() - mPrefixLength - mSuffixLength;
+        if (removed > 0) {
+            adapter.notifyItemRangeRemoved(mPrefixLength, removed);
+        }
+        if (inserted > 0) {
+            adapter.notifyItemRangeInserted(mPrefixLength, inserted);
+        }
+    }
+
+    private void diff(MovieList previous) {
+        int oldCount = previous.getCount();
+        int newCount = getCount();
+
+        int prefix = 0;
+        while (prefix < oldCount && prefix < newCount && previous.mIds[prefix] == mIds[prefix]) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < oldCount - prefix && suffix < newCount - prefix
+                && previous.mIds[oldCount - 1 - suffix] == mIds[newCount - 1 - suffix]) {
+            suffix++;
+        }
+
+        int[] changed = new int[prefix + suffix];
+        int changedCount = 0;
+        for (int i = 0; i < prefix; i++) {
+            if (!sameContents(previous, i, i)) {
+                changed[changedCount++] = i;
+            }
+        }
+        for (int i = 0; i < suffix; i++) {
+            int oldPosition = oldCount - 1 - i;
+            if (!sameContents(previous, oldPosition, newCount - 1 - i)) {
+                changed[changedCount++] = oldPosition;
+            }
+        }
+
+        mPrefixLength = prefix;
+        mSuffixLength = suffix;
+        mChangedPositions = Arrays.copyOf(changed, changedCount);
+    }
+
+    private boolean sameContents(MovieList previous, int oldPosition, int newPosition) {
+        if (previous.mRatings[oldPosition] != mRatings[newPosition]) return false;
+        String oldTitle = previous.mTitles[oldPosition];
+        String newTitle = mTitles[newPosition];
+        return oldTitle == null ? newTitle == null : oldTitle.equals(newTitle);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.rottentomatillos;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.database.Cursor;
+import android.example.com.rottentomatillos.data.TomatilloContract.Movie;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.support.v4.content.AsyncTaskLoader;
+
+/**
+ * This loads a {@link MovieList} of every movie. Like a CursorLoader, it reloads whenever the
+ * movies change, but it reads the cursor and compares the new list against the last one in the
+ * background, so the UI thread only has to rebind the rows that changed. On Jelly Bean and
+ * later, a load that is no longer wanted, because the loader was stopped or restarted, stops its
+ * query right away rather than reading every movie first.
+ */
+public class MovieListLoader extends AsyncTaskLoader<MovieList> {
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+    private boolean mObserverRegistered;
+
+    /**
+     * The last list delivered. Read on the loading thread to compare against.
+     */
+    private volatile MovieList mList;
+
+    /**
+     * Cancels the query of the load in progress. Only used on Jelly Bean and later, and guarded
+     * by this.
+     */
+    private CancellationSignal mCancellationSignal;
+
+    public MovieListLoader(Context context) {
+        super(context);
+    }
+
+    @Override
+    public MovieList loadInBackground() {
+        try {
+            Cursor cursor = query();
+            if (cursor == null) return null;
+            try {
+                return MovieList.fromCursor(cursor, mList);
+            } finally {
+                // Everything is copied out, so the cursor is not kept open.
+                cursor.close();
+            }
+        } catch (RuntimeException e) {
+            // A cancelled query throws OperationCanceledException, which cannot be named
+            // before Jelly Bean. The result of a cancelled load is dropped anyway.
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN && isQueryCanceled()) {
+                return null;
+            }
+            throw e;
+        } finally {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                synchronized (this) {
+                    mCancellationSignal = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Cancels the load, and on Jelly Bean and later also the query of a load that is running.
+     * A load cancelled before its query started still runs the query, and its result is dropped.
+     */
+    @Override
+    public boolean cancelLoad() {
+        boolean cancelled = super.cancelLoad();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            cancelQuery();
+        }
+        return cancelled;
+    }
+
+    /**
+     * Queries every movie, with a cancellation signal on Jelly Bean and later.
+     */
+    private Cursor query() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            return getContext().getContentResolver().query(
+                    Movie.CONTENT_URI, MovieList.PROJECTION, null, null, null);
+        }
+        return queryCancellable();
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private Cursor queryCancellable() {
+        CancellationSignal cancellationSignal = new CancellationSignal();
+        synchronized (this) {
+            mCancellationSignal = cancellationSignal;
+        }
+        return getContext().getContentResolver().query(
+                Movie.CONTENT_URI, MovieList.PROJECTION, null, null, null, cancellationSignal);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private synchronized boolean isQueryCanceled() {
+        return mCancellationSignal != null && mCancellationSignal.isCanceled();
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void cancelQuery() {
+        CancellationSignal cancellationSignal;
+        synchronized (this) {
+            cancellationSignal = mCancellationSignal;
+        }
+        // Called outside the lock, since cancel waits for the query to see it.
+        if (cancellationSignal != null) {
+            cancellationSignal.cancel();
+        }
+    }
+
+    @Override
+    public void deliverResult(MovieList list) {
+        if (isReset()) return;
+        mList = list;
+        if (isStarted()) {
+            super.deliverResult(list);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserverRegistered) {
+            getContext().getContentResolver().registerContentObserver(
+                    Movie.CONTENT_URI, true, mObserver);
+            mObserverRegistered = true;
+        }
+        if (mList != null) {
+            deliverResult(mList);
+        }
+        if (takeContentChanged() || mList == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        if (mObserverRegistered) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserverRegistered = false;
+        }
+        mList = null;
+    }
+}
@@ -15,59 +15,94 @@
  */
 package android.example.com.rottentomatillos;
 
-import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
-import android.database.Cursor;
 import android.graphics.PorterDuff;
 import android.graphics.drawable.LayerDrawable;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.CursorAdapter;
 import android.widget.RatingBar;
 import android.widget.TextView;
 import android.example.com.rottentomatillos.data.TomatilloContract.Movie;
 import android.example.com.rottentomatillos.data.TomatilloProvider;
 
 /**
- * This is a custom adapter for creating a list view from a cursor. The list view
+ * This is a custom adapter for creating a list view from a {@link MovieList}. The list view
  * contains clickable {@link RatingBar}s that uses a user can change by
  * selecting a new number of stars. This works in conjuncture with a {@link TomatilloProvider}
  * to display movie ratings.
+ * <p>
+ * Items have stable ids, the {@link Movie#_ID} of their movie, and when the list changes only the
+ * rows that {@link MovieList} found to differ are rebound.
  */
-public class RatingAdapter extends CursorAdapter {
+public class RatingAdapter extends RecyclerView.Adapter<RatingAdapter.ViewHolder> {
     private Context mContext;
 
     /**
      * An implementation of the view holder pattern, which caches views so that one does not need
-     * to transverse the entire view tree to find a view.
+     * to transverse the entire view tree to find a view. The bound movie's _ID is the holder's
+     * item id.
      */
-    public static class ViewHolder {
+    public static class ViewHolder extends RecyclerView.ViewHolder {
         public final RatingBar ratingBar;
         public final TextView titleView;
 
         public ViewHolder(View view) {
+            super(view);
             ratingBar = (RatingBar) view.findViewById(R.id.rating_bar);
             titleView = (TextView) view.findViewById(R.id.movie_name);
         }
     }
 
     private static final String LOG_TAG = RatingAdapter.class.getSimpleName();
-    private static int sLoaderID;
 
+    /**
+     * Writes the ratings the user picks, off the UI thread.
+     */
+    private final RatingWriteQueue mWriteQueue;
+
+    private MovieList mList;
 
-    public RatingAdapter(Context context, Cursor c, int flags, int loaderID) {
-        super(context, c, flags);
+    public RatingAdapter(Context context, RatingWriteQueue writeQueue) {
         mContext = context;
-        sLoaderID = loaderID;
+        mWriteQueue = writeQueue;
+        setHasStableIds(true);
+    }
+
+    /**
+     * Shows list instead of the current list, rebinding only the rows that changed.
+     */
+    public void swapList(MovieList list) {
+        MovieList oldList = mList;
+        mList = list;
+        if (list != null) {
+            mWriteQueue.onDataReloaded();
+        }
+        if (list == oldList) return;
+
+        if (list == null) {
+            notifyDataSetChanged();
+        } else {
+            list.dispatchUpdates(this, oldList);
+        }
     }
 
     @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
+    public int getItemCount() {
+        return mList != null ? mList.getCount() : 0;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mList.getId(position);
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
         int layoutId = R.layout.list_view_item_rating;
 
-        View view = LayoutInflater.from(context).inflate(layoutId, parent, false);
+        View view = LayoutInflater.from(mContext).inflate(layoutId, parent, false);
         ViewHolder viewHolder = new ViewHolder(view);
 
         // Hack to get orange stars.
@@ -77,57 +112,42 @@ public class RatingAdapter extends CursorAdapter {
         stars.getDrawable(2).setColorFilter(c.getResources().getColor(R.color.rt_orange),
                 PorterDuff.Mode.SRC_ATOP);
 
-        view.setTag(viewHolder);
+        // Each view keeps one listener, which reads the movie from the ViewHolder, so binding a
+        // row does not have to allocate one.
+        viewHolder.ratingBar.setOnRatingBarChangeListener(new RatingClickListener(viewHolder));
 
-        return view;
+        return viewHolder;
     }
 
     @Override
-    public void bindView(View view, Context context, final Cursor cursor) {
+    public void onBindViewHolder(ViewHolder viewHolder, int position) {
+        viewHolder.titleView.setText(mList.getTitle(position));
 
-        ViewHolder viewHolder = (ViewHolder) view.getTag();
-
-        // Read title from cursor
-        int titleIndex = cursor.getColumnIndex(Movie.TITLE);
-        final String movieTitle = cursor.getString(titleIndex);
-        viewHolder.titleView.setText(movieTitle);
-
-        int ratingIndex = cursor.getColumnIndex(Movie.RATING);
-        int rating = cursor.getInt(ratingIndex);
+        // A rating the user just picked may not be written yet, in which case show it instead of
+        // the one in the list.
+        int rating = mWriteQueue.getRating(mList.getId(position), mList.getRating(position));
         float ratingDisplay = (float)(Math.max(1, Math.min(rating, 5)));
-        // Show a number of stars equal to what was returned from the cursor for the movie.
+        // Show a number of stars equal to what was loaded for the movie.
         viewHolder.ratingBar.setRating(ratingDisplay);
-
-        int idIndex = cursor.getColumnIndex(Movie._ID);
-        long id = cursor.getLong(idIndex);
-
-        viewHolder.ratingBar.setOnRatingBarChangeListener(new RatingClickListener(id));
     }
 
     protected class RatingClickListener implements RatingBar.OnRatingBarChangeListener {
-        private long mID;
-        public RatingClickListener(long id) {
+        private final ViewHolder mViewHolder;
+        public RatingClickListener(ViewHolder viewHolder) {
             super();
-            mID = id;
+            mViewHolder = viewHolder;
         }
 
         @Override
         public void onRatingChanged(RatingBar ratingBar, float rating, boolean fromUser) {
-            // If the user changed the rating, update the rating in the ContentProvider.
+            // If the user changed the rating, queue an update of the rating in the ContentProvider.
             if (fromUser) {
-                long roundedRating = Math.max(Math.min(Math.round(rating),5),0);
+                long roundedRating = Math.max(Math.min(Math.round(rating),5),1);
                 ratingBar.setRating(roundedRating);
 
-                ContentValues values = new ContentValues();
-                values.put(Movie.RATING, roundedRating);
-
-                mContext.getContentResolver().update(
-                        ContentUris.withAppendedId(Movie.CONTENT_URI,
-                                mID),
-                        values,null,null);
-                // Tell the loader to reload the data in the cursor adapter.
-                ((MainActivity)mContext).getSupportLoaderManager().restartLoader(
-                        sLoaderID, null, (MainActivity)mContext);
+                // The rating is written in the background. Once it is, the provider notifies the
+                // loader, which reloads the list.
+                mWriteQueue.setRating(mViewHolder.getItemId(), (int) roundedRating);
             }
         }
     }
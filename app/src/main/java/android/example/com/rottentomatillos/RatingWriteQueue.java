@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.rottentomatillos;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.OperationApplicationException;
+import android.example.com.rottentomatillos.data.TomatilloContract;
+import android.example.com.rottentomatillos.data.TomatilloContract.Movie;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This writes the ratings the user picks to the {@link android.content.ContentProvider} on a
+ * background thread. Ratings are collected for a short delay and only the latest rating of each
+ * movie is written, all of them in one transaction. Until the list has reloaded with the new
+ * ratings, {@link #getRating} returns the ratings the user picked, so the list can show them
+ * right away.
+ */
+public class RatingWriteQueue {
+    private static final String LOG_TAG = RatingWriteQueue.class.getSimpleName();
+
+    private final ContentResolver mResolver;
+    private final long mDelayMillis;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+
+    /**
+     * The ratings waiting to be written, by movie _ID. Also used as the lock for the fields below.
+     */
+    private final Map<Long, Integer> mPending = new HashMap<Long, Integer>();
+    /**
+     * The ratings being written right now, which the list cannot show until they commit.
+     */
+    private final Map<Long, Integer> mWriting = new HashMap<Long, Integer>();
+    /**
+     * The ratings written since the list last reloaded.
+     */
+    private final Map<Long, Integer> mWritten = new HashMap<Long, Integer>();
+    private boolean mFlushScheduled;
+    /**
+     * The number of ratings in the three maps above, so {@link #getRating} can skip the lock
+     * and the lookup while there are none, which is nearly every time a row is bound.
+     */
+    private volatile int mRatingCount;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @param resolver The ContentResolver to write the ratings with.
+     * @param delayMillis How long to collect ratings before writing them.
+     */
+    public RatingWriteQueue(ContentResolver resolver, long delayMillis) {
+        mResolver = resolver;
+        mDelayMillis = delayMillis;
+        mThread = new HandlerThread(LOG_TAG);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * Queues rating to be written for the movie with id, replacing any rating not yet written.
+     */
+    public void setRating(long id, int rating) {
+        synchronized (mPending) {
+            mPending.put(id, rating);
+            updateRatingCount();
+            if (!mFlushScheduled) {
+                mFlushScheduled = true;
+                mHandler.postDelayed(mFlushRunnable, mDelayMillis);
+            }
+        }
+    }
+
+    /**
+     * Returns the rating the user picked for the movie with id if the list may not show it yet,
+     * or storedRating otherwise.
+     */
+    public int getRating(long id, int storedRating) {
+        if (mRatingCount == 0) return storedRating;
+        synchronized (mPending) {
+            Integer rating = mPending.get(id);
+            if (rating == null) rating = mWriting.get(id);
+            if (rating == null) rating = mWritten.get(id);
+            return rating != null ? rating : storedRating;
+        }
+    }
+
+    /**
+     * Called when the list has reloaded, after which it shows every rating written so far.
+     */
+    public void onDataReloaded() {
+        synchronized (mPending) {
+            mWritten.clear();
+            updateRatingCount();
+        }
+    }
+
+    /**
+     * Writes any queued ratings and then stops the background thread.
+     */
+    public void quit() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+                mThread.quit();
+            }
+        });
+    }
+
+    /**
+     * Writes the queued ratings. Runs on the background thread.
+     */
+    private void flush() {
+        long[] ids;
+        int[] ratings;
+        synchronized (mPending) {
+            mHandler.removeCallbacks(mFlushRunnable);
+            mFlushScheduled = false;
+            if (mPending.isEmpty()) return;
+
+            ids = new long[mPending.size()];
+            ratings = new int[mPending.size()];
+            int i = 0;
+            for (Map.Entry<Long, Integer> entry : mPending.entrySet()) {
+                ids[i] = entry.getKey();
+                ratings[i] = entry.getValue();
+                i++;
+            }
+            // The ratings only count as written once the write below has committed, so a
+            // reload before then cannot drop them.
+            mWriting.putAll(mPending);
+            mPending.clear();
+        }
+
+        try {
+            write(ids, ratings);
+        } finally {
+            synchronized (mPending) {
+                mWritten.putAll(mWriting);
+                mWriting.clear();
+                updateRatingCount();
+            }
+        }
+    }
+
+    /**
+     * Writes ratings to the movies with ids in one transaction.
+     */
+    private void write(long[] ids, int[] ratings) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            Bundle extras = new Bundle();
+            extras.putLongArray(TomatilloContract.KEY_MOVIE_IDS, ids);
+            extras.putIntArray(TomatilloContract.KEY_RATINGS, ratings);
+            mResolver.call(Movie.CONTENT_URI, TomatilloContract.METHOD_SET_RATINGS, null, extras);
+        } else {
+            // Before Honeycomb there is no call(), but a batch is also one transaction.
+            ArrayList<ContentProviderOperation> operations =
+                    new ArrayList<ContentProviderOperation>(ids.length);
+            for (int i = 0; i < ids.length; i++) {
+                operations.add(ContentProviderOperation
+                        .newUpdate(ContentUris.withAppendedId(Movie.CONTENT_URI, ids[i]))
+                        .withValue(Movie.RATING, ratings[i])
+                        .build());
+            }
+            try {
+                mResolver.applyBatch(TomatilloContract.CONTENT_AUTHORITY, operations);
+            } catch (RemoteException e) {
+                Log.e(LOG_TAG, "Could not write ratings", e);
+            } catch (OperationApplicationException e) {
+                Log.e(LOG_TAG, "Could not write ratings", e);
+            }
+        }
+    }
+
+    /**
+     * Updates {@link #mRatingCount}. The caller must hold the lock on mPending.
+     */
+    private void updateRatingCount() {
+        mRatingCount = mPending.size() + mWriting.size() + mWritten.size();
+    }
+}
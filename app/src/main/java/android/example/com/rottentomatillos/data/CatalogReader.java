@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.rottentomatillos.data;
+
+import android.example.com.rottentomatillos.data.TomatilloContract.Movie;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This reads movies one at a time from a CSV or NDJSON stream, for importing catalogs of any
+ * size through {@link TomatilloProvider}. Only the current movie is held in memory.
+ * <p>
+ * CSV must start with a header line naming the columns, of which {@link Movie#TITLE} and
+ * {@link Movie#RATING} are read. Fields may be quoted as RFC 4180 describes. NDJSON has one JSON
+ * object per line, of which the {@link Movie#TITLE} and {@link Movie#RATING} members are read.
+ * Other columns and members, such as the {@link Movie#_ID} written by an export, are ignored, so
+ * an export can be imported again.
+ */
+class CatalogReader {
+    /**
+     * The most characters a movie may take. A line without an end, or a CSV quote that is never
+     * closed, would otherwise be read into memory whole, so a longer record is returned as an
+     * invalid movie and reading goes on at the next line.
+     */
+    static final int MAX_RECORD_LENGTH = 64 * 1024;
+
+    private final Reader mReader;
+    private final boolean mNdjson;
+
+    // Indices of the title and rating fields of CSV records.
+    private int mTitleField = -1;
+    private int mRatingField = -1;
+    private final List<String> mFields = new ArrayList<String>();
+    private final StringBuilder mBuilder = new StringBuilder();
+    /**
+     * Whether the last CSV record was cut off at {@link #MAX_RECORD_LENGTH}.
+     */
+    private boolean mRecordTooLong;
+
+    // The characters read from mReader, of which those from mPosition to mLimit are not used yet.
+    private final char[] mBuffer = new char[8192];
+    private int mPosition;
+    private int mLimit;
+    private final StringBuilder mLine = new StringBuilder();
+    /**
+     * Whether the last line was cut off at {@link #MAX_RECORD_LENGTH}.
+     */
+    private boolean mLineTooLong;
+    /**
+     * Whether the last line ended with a carriage return, so a line feed right after it is part
+     * of the same line end.
+     */
+    private boolean mSkipLineFeed;
+
+    private String mTitle;
+    private int mRating;
+    private boolean mValid;
+
+    /**
+     * @param ndjson Whether in is NDJSON rather than CSV. Either way it must be UTF-8.
+     */
+    CatalogReader(InputStream in, boolean ndjson) throws IOException {
+        mReader = new InputStreamReader(in, "UTF-8");
+        mNdjson = ndjson;
+        if (!ndjson && readCsvRecord()) {
+            for (int i = 0; i < mFields.size(); i++) {
+                String column = mFields.get(i).trim();
+                if (Movie.TITLE.equals(column)) mTitleField = i;
+                if (Movie.RATING.equals(column)) mRatingField = i;
+            }
+        }
+        if (!ndjson && (mTitleField == -1 || mRatingField == -1)) {
+            throw new IOException("The CSV header must name the " + Movie.TITLE + " and " +
+                    Movie.RATING + " columns");
+        }
+    }
+
+    /**
+     * Reads the next movie. Returns false at the end of the stream.
+     */
+    boolean next() throws IOException {
+        mTitle = null;
+        mRating = 0;
+        mValid = false;
+        String rating = null;
+        if (mNdjson) {
+            String line;
+            do {
+                line = readLine();
+                if (line == null) return false;
+            } while (!mLineTooLong && line.trim().length() == 0);
+            // A line that is too long or is not a flat JSON object is returned as an invalid
+            // movie.
+            if (mLineTooLong || !parseJsonObject(line)) return true;
+            for (int i = 0; i + 1 < mFields.size(); i += 2) {
+                if (Movie.TITLE.equals(mFields.get(i))) mTitle = mFields.get(i + 1);
+                if (Movie.RATING.equals(mFields.get(i))) rating = mFields.get(i + 1);
+            }
+        } else {
+            do {
+                if (!readCsvRecord()) return false;
+            } while (!mRecordTooLong && mFields.size() == 1 && mFields.get(0).length() == 0);
+            if (mRecordTooLong) return true;
+            if (mTitleField < mFields.size()) mTitle = mFields.get(mTitleField);
+            if (mRatingField < mFields.size()) rating = mFields.get(mRatingField);
+        }
+
+        if (mTitle == null || mTitle.length() == 0 || rating == null) return true;
+        try {
+            mRating = Integer.parseInt(rating.trim());
+        } catch (NumberFormatException e) {
+            return true;
+        }
+        mValid = mRating >= 1 && mRating <= 5;
+        return true;
+    }
+
+    /**
+     * Returns whether the current movie has a title and a rating between 1 and 5. Movies that
+     * do not are skipped by the import.
+     */
+    boolean isValid() {
+        return mValid;
+    }
+
+    String getTitle() {
+        return mTitle;
+    }
+
+    int getRating() {
+        return mRating;
+    }
+
+    void close() throws IOException {
+        mReader.close();
+    }
+
+    /**
+     * Reads the fields of the next CSV record into mFields. A quoted field may span lines.
+     * Returns false at the end of the stream.
+     */
+    private boolean readCsvRecord() throws IOException {
+        String line = readLine();
+        if (line == null) return false;
+        mFields.clear();
+        mBuilder.setLength(0);
+        mRecordTooLong = mLineTooLong;
+        boolean quoted = false;
+        while (!mRecordTooLong) {
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (quoted) {
+                    if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        mBuilder.append('"');
+                        i++;
+                    } else if (c == '"') {
+                        quoted = false;
+                    } else {
+                        mBuilder.append(c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    mFields.add(mBuilder.toString());
+                    mBuilder.setLength(0);
+                } else {
+                    mBuilder.append(c);
+                }
+            }
+            if (!quoted) break;
+            if (mBuilder.length() > MAX_RECORD_LENGTH) {
+                mRecordTooLong = true;
+                break;
+            }
+            // The quoted field goes on to the next line.
+            line = readLine();
+            if (line == null) break;
+            mRecordTooLong = mLineTooLong;
+            mBuilder.append('\n');
+        }
+        mFields.add(mBuilder.toString());
+        return true;
+    }
+
+    /**
+     * Reads the next line like BufferedReader.readLine, but keeps no more than
+     * {@link #MAX_RECORD_LENGTH} characters of it. The rest of a longer line is skipped and
+     * mLineTooLong is set. Returns null at the end of the stream.
+     */
+    private String readLine() throws IOException {
+        mLine.setLength(0);
+        mLineTooLong = false;
+        boolean found = false;
+        while (true) {
+            if (mPosition == mLimit) {
+                mPosition = 0;
+                mLimit = mReader.read(mBuffer, 0, mBuffer.length);
+                if (mLimit == -1) {
+                    mLimit = 0;
+                    return found ? mLine.toString() : null;
+                }
+                continue;
+            }
+            if (mSkipLineFeed) {
+                mSkipLineFeed = false;
+                if (mBuffer[mPosition] == '\n') {
+                    mPosition++;
+                    continue;
+                }
+            }
+            found = true;
+            int start = mPosition;
+            while (mPosition < mLimit && mBuffer[mPosition] != '\n'
+                    && mBuffer[mPosition] != '\r') {
+                mPosition++;
+            }
+            int count = mPosition - start;
+            int room = MAX_RECORD_LENGTH - mLine.length();
+            if (count > room) {
+                mLineTooLong = true;
+                count = room;
+            }
+            mLine.append(mBuffer, start, count);
+            if (mPosition < mLimit) {
+                mSkipLineFeed = mBuffer[mPosition++] == '\r';
+                return mLine.toString();
+            }
+        }
+    }
+
+    /**
+     * Reads the members of a JSON object with string, number, boolean or null values into
+     * mFields, as name and value pairs. Returns false if line is not such an object.
+     */
+    private boolean parseJsonObject(String line) {
+        mFields.clear();
+        int[] position = new int[]{skipSpace(line, 0)};
+        if (!expect(line, position, '{')) return false;
+        if (expect(line, position, '}')) return true;
+        while (true) {
+            String name = parseJsonString(line, position);
+            if (name == null || !expect(line, position, ':')) return false;
+            String value;
+            if (position[0] < line.length() && line.charAt(position[0]) == '"') {
+                value = parseJsonString(line, position);
+                if (value == null) return false;
+            } else {
+                // Numbers and literals are kept as they are written.
+                int start = position[0];
+                while (position[0] < line.length()
+                        && ",} \t".indexOf(line.charAt(position[0])) < 0) {
+                    position[0]++;
+                }
+                if (start == position[0]) return false;
+                value = line.substring(start, position[0]);
+                position[0] = skipSpace(line, position[0]);
+            }
+            mFields.add(name);
+            mFields.add(value);
+            if (expect(line, position, '}')) return true;
+            if (!expect(line, position, ',')) return false;
+        }
+    }
+
+    /**
+     * Reads the JSON string starting at position and moves position past it and any space after
+     * it. Returns null if there is no valid string there.
+     */
+    private String parseJsonString(String line, int[] position) {
+        int i = position[0];
+        if (i >= line.length() || line.charAt(i) != '"') return null;
+        mBuilder.setLength(0);
+        for (i++; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                position[0] = skipSpace(line, i + 1);
+                return mBuilder.toString();
+            }
+            if (c != '\\') {
+                mBuilder.append(c);
+                continue;
+            }
+            if (++i >= line.length()) return null;
+            char escaped = line.charAt(i);
+            switch (escaped) {
+                case 'b': mBuilder.append('\b'); break;
+                case 'f': mBuilder.append('\f'); break;
+                case 'n': mBuilder.append('\n'); break;
+                case 'r': mBuilder.append('\r'); break;
+                case 't': mBuilder.append('\t'); break;
+                case 'u':
+                    if (i + 4 >= line.length()) return null;
+                    try {
+                        mBuilder.append((char) Integer.parseInt(line.substring(i + 1, i + 5), 16));
+                    } catch (NumberFormatException e) {
+                        return null;
+                    }
+                    i += 4;
+                    break;
+                default: mBuilder.append(escaped); break;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Moves position past c and any space after it, and returns true, if c is at position.
+     */
+    private static boolean expect(String line, int[] position, char c) {
+        if (position[0] >= line.length() || line.charAt(position[0]) != c) return false;
+        position[0] = skipSpace(line, position[0] + 1);
+        return true;
+    }
+
+    private static int skipSpace(String line, int i) {
+        while (i < line.length() && Character.isWhitespace(line.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.rottentomatillos.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * This collects the URIs changed by {@link TomatilloProvider} over a short window and then
+ * notifies each of them once. A burst of writes therefore makes anything watching, such as a
+ * CursorLoader, requery once instead of once per write.
+ */
+public class ChangeNotifier {
+    private final ContentResolver mResolver;
+    private final Handler mHandler;
+    private final long mWindowMillis;
+
+    /**
+     * The URIs changed since the last flush. Also used as the lock for the fields below.
+     */
+    private final Set<Uri> mDirtyUris = new LinkedHashSet<Uri>();
+    private boolean mFlushScheduled;
+    private long mRequestedCount;
+    private long mDispatchedCount;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @param resolver The ContentResolver used to send the notifications.
+     * @param windowMillis How long to collect changed URIs before notifying them.
+     */
+    public ChangeNotifier(ContentResolver resolver, long windowMillis) {
+        mResolver = resolver;
+        mWindowMillis = windowMillis;
+        mHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Marks uri as changed. It is notified when the current window ends, together with every
+     * other URI changed during the window.
+     */
+    public void notifyChange(Uri uri) {
+        synchronized (mDirtyUris) {
+            mRequestedCount++;
+            mDirtyUris.add(uri);
+            if (!mFlushScheduled) {
+                mFlushScheduled = true;
+                mHandler.postDelayed(mFlushRunnable, mWindowMillis);
+            }
+        }
+    }
+
+    /**
+     * Notifies every URI changed since the last flush right away.
+     */
+    public void flush() {
+        Uri[] uris;
+        synchronized (mDirtyUris) {
+            mHandler.removeCallbacks(mFlushRunnable);
+            mFlushScheduled = false;
+            uris = mDirtyUris.toArray(new Uri[mDirtyUris.size()]);
+            mDirtyUris.clear();
+            mDispatchedCount += uris.length;
+        }
+        // Notify outside of the lock so that writers are never blocked on the ContentResolver.
+        for (Uri uri : uris) {
+            mResolver.notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Returns the number of notifications that have been sent.
+     */
+    public long getDispatchedCount() {
+        synchronized (mDirtyUris) {
+            return mDispatchedCount;
+        }
+    }
+
+    /**
+     * Returns the number of notifications that were not sent because the same URI had already
+     * been marked as changed in the same window.
+     */
+    public long getSuppressedCount() {
+        synchronized (mDirtyUris) {
+            return mRequestedCount - mDispatchedCount - mDirtyUris.size();
+        }
+    }
+}
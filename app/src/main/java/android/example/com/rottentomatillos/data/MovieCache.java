@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.rottentomatillos.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.example.com.rottentomatillos.data.TomatilloContract.Movie;
+import android.support.v4.util.LruCache;
+
+/**
+ * This is a size-bounded cache of movie rows keyed by {@link Movie#_ID}, used by
+ * {@link TomatilloProvider} to answer lookups of single movies without going to the database.
+ * The least recently used movies are evicted first.
+ */
+class MovieCache {
+    /**
+     * The columns stored for every movie. Only queries for some of these can be answered.
+     */
+    static final String[] COLUMNS = new String[]{Movie._ID, Movie.TITLE, Movie.RATING};
+
+    private final LruCache<Long, Object[]> mRows;
+
+    /**
+     * Counts the invalidations. A row read from the database is only stored if nothing was
+     * invalidated while it was being read, so a concurrent write can never leave a stale row.
+     */
+    private long mGeneration;
+
+    /**
+     * @param maxSize The maximum number of movies to keep.
+     */
+    MovieCache(int maxSize) {
+        mRows = new LruCache<Long, Object[]>(maxSize);
+    }
+
+    /**
+     * Returns whether a query with projection can be answered from the cache.
+     */
+    static boolean canServe(String[] projection) {
+        if (projection == null) return true;
+        for (String column : projection) {
+            if (columnIndex(column) == -1) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns a cursor with the cached movie, or null if it is not cached.
+     * @param projection The columns to return, which {@link #canServe} must accept.
+     */
+    Cursor get(long id, String[] projection) {
+        Object[] row = mRows.get(id);
+        if (row == null) return null;
+        return toCursor(row, projection);
+    }
+
+    /**
+     * Returns the value to pass to {@link #put} for a row that is about to be read from the
+     * database.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Stores a movie read from the database and returns a cursor with it.
+     * @param generation The value of {@link #getGeneration} from before the movie was read.
+     * @param projection The columns to return, which {@link #canServe} must accept.
+     */
+    Cursor put(long generation, long id, String title, long rating, String[] projection) {
+        Object[] row = new Object[]{id, title, rating};
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mRows.put(id, row);
+            }
+        }
+        return toCursor(row, projection);
+    }
+
+    /**
+     * Removes the movie with id from the cache.
+     */
+    synchronized void remove(long id) {
+        mGeneration++;
+        mRows.remove(id);
+    }
+
+    /**
+     * Removes every movie from the cache.
+     */
+    synchronized void clear() {
+        mGeneration++;
+        mRows.evictAll();
+    }
+
+    int hitCount() {
+        return mRows.hitCount();
+    }
+
+    int missCount() {
+        return mRows.missCount();
+    }
+
+    int evictionCount() {
+        return mRows.evictionCount();
+    }
+
+    int size() {
+        return mRows.size();
+    }
+
+    /**
+     * Returns an empty cursor with the columns of projection, for a movie that does not exist.
+     */
+    static Cursor emptyCursor(String[] projection) {
+        return new MatrixCursor(projection != null ? projection : COLUMNS, 0);
+    }
+
+    private static Cursor toCursor(Object[] row, String[] projection) {
+        if (projection == null) projection = COLUMNS;
+        Object[] values = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            values[i] = row[columnIndex(projection[i])];
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        cursor.addRow(values);
+        return cursor;
+    }
+
+    private static int columnIndex(String column) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(column)) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.rottentomatillos.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.example.com.rottentomatillos.data.TomatilloContract.Movie;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * This writes every movie to a stream as CSV or NDJSON, for the export URI of
+ * {@link TomatilloProvider}. Movies are read in chunks of {@link #CHUNK_SIZE}, each found with an
+ * index seek after the last {@link Movie#_ID} of the previous chunk, so the memory used stays the
+ * same however many movies there are. Each chunk is its own read, so a movie changed during the
+ * export may be written as it was before or after the change.
+ */
+class MovieExporter {
+    /**
+     * The number of movies read from the database at a time.
+     */
+    static final int CHUNK_SIZE = 500;
+
+    private static final String[] COLUMNS = new String[]{Movie._ID, Movie.TITLE, Movie.RATING};
+
+    /**
+     * Writes every movie to out and returns the number written. out is not closed.
+     * @param ndjson Whether to write NDJSON rather than CSV.
+     * @throws IOException If out could not be written, such as when the reader has gone away.
+     */
+    static int write(SQLiteDatabase db, boolean ndjson, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+        if (!ndjson) {
+            writer.write(Movie._ID + "," + Movie.TITLE + "," + Movie.RATING + "\n");
+        }
+
+        StringBuilder line = new StringBuilder();
+        long lastId = Long.MIN_VALUE;
+        int rows = 0;
+        int chunkRows;
+        do {
+            Cursor chunk = db.query(
+                    Movie.TABLE_NAME,
+                    COLUMNS,
+                    Movie._ID + " > ?",
+                    new String[]{String.valueOf(lastId)},
+                    null,
+                    null,
+                    Movie._ID + " ASC",
+                    String.valueOf(CHUNK_SIZE)
+            );
+            try {
+                chunkRows = chunk.getCount();
+                while (chunk.moveToNext()) {
+                    lastId = chunk.getLong(0);
+                    line.setLength(0);
+                    if (ndjson) {
+                        appendJson(line, lastId, chunk.getString(1), chunk.getInt(2));
+                    } else {
+                        appendCsv(line, lastId, chunk.getString(1), chunk.getInt(2));
+                    }
+                    writer.append(line);
+                }
+            } finally {
+                chunk.close();
+            }
+            rows += chunkRows;
+        } while (chunkRows == CHUNK_SIZE);
+
+        writer.flush();
+        return rows;
+    }
+
+    private static void appendCsv(StringBuilder line, long id, String title, int rating) {
+        line.append(id).append(',');
+        // Titles are quoted only when they have to be, as RFC 4180 describes.
+        if (title.indexOf(',') >= 0 || title.indexOf('"') >= 0 || title.indexOf('\n') >= 0
+                || title.indexOf('\r') >= 0) {
+            line.append('"').append(title.replace("\"", "\"\"")).append('"');
+        } else {
+            line.append(title);
+        }
+        line.append(',').append(rating).append('\n');
+    }
+
+    private static void appendJson(StringBuilder line, long id, String title, int rating) {
+        line.append("{\"").append(Movie._ID).append("\":").append(id)
+                .append(",\"").append(Movie.TITLE).append("\":\"");
+        for (int i = 0; i < title.length(); i++) {
+            char c = title.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c < 0x20) {
+                line.append(String.format("\\u%04x", (int) c));
+            } else {
+                line.append(c);
+            }
+        }
+        line.append("\",\"").append(Movie.RATING).append("\":").append(rating).append("}\n");
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.rottentomatillos.data;
+
+import android.os.Bundle;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This records how often each entry point of {@link TomatilloProvider} is called for each kind
+ * of URI, how many rows the calls affect and how long they take. Recording only updates
+ * counters in preallocated arrays, so it is cheap enough to leave on in release builds.
+ * <p>
+ * Latencies are counted in buckets whose bounds double, from 1 microsecond up, so percentiles
+ * are reported as the upper bound of the bucket they fall in.
+ */
+class ProviderMetrics {
+    static final int QUERY = 0;
+    static final int INSERT = 1;
+    static final int BULK_INSERT = 2;
+    static final int UPDATE = 3;
+    static final int DELETE = 4;
+    static final int GET_TYPE = 5;
+    /**
+     * An export opened as a file. The latency is the time until the whole export was written.
+     */
+    static final int OPEN_FILE = 6;
+    /**
+     * One chunk of a chunked bulk insert.
+     */
+    static final int BULK_INSERT_CHUNK = 7;
+    /**
+     * A catalog import, recorded under the movie URI code. The rows are the movies imported.
+     */
+    static final int IMPORT_CATALOG = 8;
+
+    private static final String[] OPERATION_NAMES = new String[]{
+            "query", "insert", "bulkInsert", "update", "delete", "getType", "openFile",
+            "bulkInsertChunk", "importCatalog"};
+
+    /**
+     * Bucket i counts latencies below 2^i microseconds that did not fit in bucket i - 1. The
+     * last bucket counts everything slower.
+     */
+    private static final int BUCKET_COUNT = 32;
+
+    private final int[] mCodes;
+    private final String[] mCodeNames;
+
+    /**
+     * Each slot is an operation and URI code pair, see {@link #slot}.
+     */
+    private final AtomicLongArray mCalls;
+    private final AtomicLongArray mRows;
+    private final AtomicLongArray mBuckets;
+
+    /**
+     * @param codes The UriMatcher codes to record separately. Any other code is recorded as
+     *              unknown.
+     * @param codeNames A name for each code, used in the snapshot keys.
+     */
+    ProviderMetrics(int[] codes, String[] codeNames) {
+        mCodes = codes;
+        mCodeNames = codeNames;
+        // The extra code slot is for unknown codes.
+        int slotCount = OPERATION_NAMES.length * (codes.length + 1);
+        mCalls = new AtomicLongArray(slotCount);
+        mRows = new AtomicLongArray(slotCount);
+        mBuckets = new AtomicLongArray(slotCount * BUCKET_COUNT);
+    }
+
+    /**
+     * Records one call.
+     * @param operation One of the operation constants, such as {@link #QUERY}.
+     * @param code The UriMatcher code of the call's URI.
+     * @param startNanos The value of {@link System#nanoTime} when the call started.
+     * @param rows The number of rows the call affected.
+     */
+    void record(int operation, int code, long startNanos, int rows) {
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        int bucket = Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+
+        int slot = slot(operation, code);
+        mCalls.incrementAndGet(slot);
+        mRows.addAndGet(slot, rows);
+        mBuckets.incrementAndGet(slot * BUCKET_COUNT + bucket);
+    }
+
+    /**
+     * Returns the counters of every operation and URI code that was called. The keys are
+     * "operation.code.metric", such as "query.movie_with_id.p99_us", with the metrics described
+     * in {@link TomatilloContract#METHOD_GET_METRICS}.
+     */
+    Bundle snapshot() {
+        Bundle snapshot = new Bundle();
+        for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+            for (int codeIndex = 0; codeIndex <= mCodes.length; codeIndex++) {
+                int slot = operation * (mCodes.length + 1) + codeIndex;
+                long calls = mCalls.get(slot);
+                if (calls == 0) continue;
+
+                String prefix = OPERATION_NAMES[operation] + "." +
+                        (codeIndex < mCodes.length ? mCodeNames[codeIndex] : "unknown") + ".";
+                long[] buckets = new long[BUCKET_COUNT];
+                long total = 0;
+                for (int i = 0; i < BUCKET_COUNT; i++) {
+                    buckets[i] = mBuckets.get(slot * BUCKET_COUNT + i);
+                    total += buckets[i];
+                }
+                snapshot.putLong(prefix + TomatilloContract.METRIC_CALLS, calls);
+                snapshot.putLong(prefix + TomatilloContract.METRIC_ROWS, mRows.get(slot));
+                snapshot.putLong(prefix + TomatilloContract.METRIC_P50_MICROS,
+                        percentileMicros(buckets, total, 0.50));
+                snapshot.putLong(prefix + TomatilloContract.METRIC_P95_MICROS,
+                        percentileMicros(buckets, total, 0.95));
+                snapshot.putLong(prefix + TomatilloContract.METRIC_P99_MICROS,
+                        percentileMicros(buckets, total, 0.99));
+            }
+        }
+        return snapshot;
+    }
+
+    private int slot(int operation, int code) {
+        int codeIndex = 0;
+        while (codeIndex < mCodes.length && mCodes[codeIndex] != code) {
+            codeIndex++;
+        }
+        return operation * (mCodes.length + 1) + codeIndex;
+    }
+
+    /**
+     * Returns the upper bound, in microseconds, of the bucket holding the percentile p.
+     */
+    private static long percentileMicros(long[] buckets, long total, double p) {
+        long rank = (long) Math.ceil(p * total);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) return 1L << i;
+        }
+        return 1L << (buckets.length - 1);
+    }
+}
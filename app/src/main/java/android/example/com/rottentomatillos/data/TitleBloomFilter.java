@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.rottentomatillos.data;
+
+/**
+ * This is a Bloom filter of movie titles, used by {@link TomatilloProvider} to tell which titles
+ * of a bulk insert are certainly not in the database yet. {@link #mightContain} never returns
+ * false for a title that was added, and returns true for about 1% of the titles that were not,
+ * as long as no more than the capacity were added.
+ * <p>
+ * Titles cannot be taken out of a Bloom filter, so removed titles are only counted. Once too
+ * many titles were added or removed, {@link #needsRebuild} tells the owner to build a new one.
+ */
+class TitleBloomFilter {
+    /**
+     * Ten bits and seven hashes per title give about 1% false positives.
+     */
+    private static final int BITS_PER_TITLE = 10;
+    private static final int HASH_COUNT = 7;
+
+    private final long[] mBits;
+    private final int mBitCount;
+    private final int mCapacity;
+    private int mSize;
+    private int mRemoved;
+
+    /**
+     * @param capacity The number of titles the filter is sized for.
+     */
+    TitleBloomFilter(int capacity) {
+        mCapacity = Math.max(1, capacity);
+        mBitCount = (int) Math.min(Integer.MAX_VALUE, (long) mCapacity * BITS_PER_TITLE);
+        mBits = new long[(mBitCount + 63) / 64];
+    }
+
+    synchronized void add(String title) {
+        int hash1 = title.hashCode();
+        int hash2 = secondHash(title);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            int bit = bitIndex(hash1 + i * hash2);
+            mBits[bit >>> 6] |= 1L << bit;
+        }
+        mSize++;
+    }
+
+    /**
+     * Returns false if title was certainly never added, or true if it may have been.
+     */
+    synchronized boolean mightContain(String title) {
+        int hash1 = title.hashCode();
+        int hash2 = secondHash(title);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            int bit = bitIndex(hash1 + i * hash2);
+            if ((mBits[bit >>> 6] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Records that count titles were removed from the database. They stay in the filter, where
+     * they only cost a lookup when they are inserted again.
+     */
+    synchronized void remove(int count) {
+        mRemoved += count;
+    }
+
+    /**
+     * Returns whether the filter has more titles than it was sized for, or more removed titles
+     * than live ones, so that it gives too many false positives.
+     */
+    synchronized boolean needsRebuild() {
+        return mSize > mCapacity || mRemoved > mSize - mRemoved;
+    }
+
+    private int bitIndex(int hash) {
+        return (hash & Integer.MAX_VALUE) % mBitCount;
+    }
+
+    /**
+     * Returns an FNV-1a hash of title, which is independent of {@link String#hashCode}. It is
+     * made odd so that no multiple of it is zero.
+     */
+    private static int secondHash(String title) {
+        int hash = 0x811c9dc5;
+        for (int i = 0; i < title.length(); i++) {
+            hash ^= title.charAt(i);
+            hash *= 0x01000193;
+        }
+        return hash | 1;
+    }
+}
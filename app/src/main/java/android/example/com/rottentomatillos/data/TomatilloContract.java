@@ -34,6 +34,196 @@ public class TomatilloContract {
      */
     public static final Uri BASE_CONTENT_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
 
+    /**
+     * Name of the provider method, used with {@link android.content.ContentResolver#call}, that
+     * returns how many change notifications were sent and how many were merged away.
+     */
+    public static final String METHOD_GET_NOTIFICATION_STATS = "getNotificationStats";
+
+    /**
+     * Bundle key for the number of change notifications sent.
+     * <P>Type: long</P>
+     */
+    public static final String KEY_NOTIFICATIONS_DISPATCHED = "notifications_dispatched";
+
+    /**
+     * Bundle key for the number of change notifications that were not sent because the same
+     * URI was already waiting to be notified.
+     * <P>Type: long</P>
+     */
+    public static final String KEY_NOTIFICATIONS_SUPPRESSED = "notifications_suppressed";
+
+    /**
+     * Name of the provider method that sets the rating of one movie. It takes the
+     * {@link #KEY_MOVIE_ID} and {@link #KEY_RATING} in its extras and returns the number of rows
+     * changed in {@link #KEY_ROWS_CHANGED}. It is a faster way to update a single rating than
+     * {@link android.content.ContentResolver#update}.
+     */
+    public static final String METHOD_SET_RATING = "setRating";
+
+    /**
+     * Name of the provider method that sets the ratings of several movies in one transaction. It
+     * takes the {@link #KEY_MOVIE_IDS} and {@link #KEY_RATINGS} in its extras, where each rating
+     * is for the movie at the same index, and returns the number of rows changed in
+     * {@link #KEY_ROWS_CHANGED}.
+     */
+    public static final String METHOD_SET_RATINGS = "setRatings";
+
+    /**
+     * Bundle key for the {@link Movie#_ID} of a movie.
+     * <P>Type: long</P>
+     */
+    public static final String KEY_MOVIE_ID = "movie_id";
+
+    /**
+     * Bundle key for a rating between 1 and 5.
+     * <P>Type: int</P>
+     */
+    public static final String KEY_RATING = "rating";
+
+    /**
+     * Bundle keys for the {@link Movie#_ID}s of several movies and for their ratings.
+     * <P>Type: long[] and int[]</P>
+     */
+    public static final String KEY_MOVIE_IDS = "movie_ids";
+    public static final String KEY_RATINGS = "ratings";
+
+    /**
+     * Bundle key for the number of rows changed.
+     * <P>Type: int</P>
+     */
+    public static final String KEY_ROWS_CHANGED = "rows_changed";
+
+    /**
+     * Name of the provider method that imports movies from a CSV or NDJSON file, in the formats
+     * described by {@link Movie#buildExportUri}, so an export can be imported again. The file
+     * is read as a stream and written a chunk of movies per transaction, so a catalog of any
+     * size can be imported with the same memory. Movies already in the database, and rows
+     * without a title or a rating from 1 to 5, are skipped.
+     * <p>
+     * The file is given as a Uri string in the arg, or as a ParcelFileDescriptor in
+     * {@link #KEY_FILE_DESCRIPTOR}. {@link #KEY_IMPORT_FORMAT} is {@link Movie#EXPORT_FORMAT_CSV}
+     * or {@link Movie#EXPORT_FORMAT_NDJSON}; without it, files ending in .ndjson or .jsonl are
+     * read as NDJSON and anything else as CSV. An optional {@link #KEY_IMPORT_ID}, chosen by the
+     * caller, lets other threads follow the import with {@link #METHOD_GET_IMPORT_PROGRESS} and
+     * stop it with {@link #METHOD_CANCEL_IMPORT}.
+     * <p>
+     * The call returns once the import has finished or been cancelled, with
+     * {@link #KEY_ROWS_READ}, {@link #KEY_ROWS_IMPORTED}, {@link #KEY_ELAPSED_MILLIS},
+     * {@link #KEY_ROWS_PER_SECOND} and {@link #KEY_CANCELLED}. Chunks written before a
+     * cancellation stay in the database.
+     */
+    public static final String METHOD_IMPORT_CATALOG = "importCatalog";
+
+    /**
+     * Name of the provider method that returns the progress of the import with the
+     * {@link #KEY_IMPORT_ID} given in its extras, in the same keys as
+     * {@link #METHOD_IMPORT_CATALOG} returns, counting the chunks committed so far. Returns null
+     * if no such import is running.
+     */
+    public static final String METHOD_GET_IMPORT_PROGRESS = "getImportProgress";
+
+    /**
+     * Name of the provider method that cancels the import with the {@link #KEY_IMPORT_ID} given
+     * in its extras. The import stops after the chunk it is writing. Returns null.
+     */
+    public static final String METHOD_CANCEL_IMPORT = "cancelImport";
+
+    /**
+     * Bundle key for a caller chosen name of an import.
+     * <P>Type: String</P>
+     */
+    public static final String KEY_IMPORT_ID = "import_id";
+
+    /**
+     * Bundle key for the format of an import.
+     * <P>Type: String</P>
+     */
+    public static final String KEY_IMPORT_FORMAT = "import_format";
+
+    /**
+     * Bundle key for a file descriptor to import from.
+     * <P>Type: ParcelFileDescriptor</P>
+     */
+    public static final String KEY_FILE_DESCRIPTOR = "file_descriptor";
+
+    /**
+     * Bundle keys for the progress of an import: the rows read from the file, the movies
+     * inserted, the time taken, and the rows read per second.
+     * <P>Type: long, long, long and double</P>
+     */
+    public static final String KEY_ROWS_READ = "rows_read";
+    public static final String KEY_ROWS_IMPORTED = "rows_imported";
+    public static final String KEY_ELAPSED_MILLIS = "elapsed_ms";
+    public static final String KEY_ROWS_PER_SECOND = "rows_per_second";
+
+    /**
+     * Bundle key for whether an import was cancelled before the end of the file.
+     * <P>Type: boolean</P>
+     */
+    public static final String KEY_CANCELLED = "cancelled";
+
+    /**
+     * Name of the provider method that returns how often each entry point of the provider was
+     * called for each kind of URI, and how long the calls took. The Bundle keys are
+     * "operation.uri.metric", such as "query.movie_with_id.p99_us", where operation is query,
+     * insert, bulkInsert, update, delete, getType, openFile, bulkInsertChunk or importCatalog
+     * and metric is one of the METRIC constants. Latency percentiles are rounded up to a power
+     * of two microseconds. The latency of openFile is the time until the whole export was
+     * written, bulkInsertChunk times each chunk of a chunked bulk insert, and importCatalog,
+     * recorded under the movie URI, times a whole {@link #METHOD_IMPORT_CATALOG} call and counts
+     * the movies it imported.
+     */
+    public static final String METHOD_GET_METRICS = "getMetrics";
+
+    /**
+     * Metric names for the number of calls, the number of rows they returned, inserted, updated
+     * or deleted and the 50th, 95th and 99th percentile latency in microseconds. The latency of
+     * a query includes running it, up to its row count.
+     * <P>Type: long</P>
+     */
+    public static final String METRIC_CALLS = "calls";
+    public static final String METRIC_ROWS = "rows";
+    public static final String METRIC_P50_MICROS = "p50_us";
+    public static final String METRIC_P95_MICROS = "p95_us";
+    public static final String METRIC_P99_MICROS = "p99_us";
+
+    /**
+     * Name of the provider method that returns the number of inserted movies that were skipped
+     * and the number of upserts that updated an existing movie.
+     */
+    public static final String METHOD_GET_INSERT_STATS = "getInsertStats";
+
+    /**
+     * Bundle key for the number of inserted movies that were skipped because the title was
+     * already in the database or a column was missing.
+     * <P>Type: long</P>
+     */
+    public static final String KEY_SKIPPED_INSERTS = "skipped_inserts";
+
+    /**
+     * Bundle key for the number of upserts that updated the rating of an existing movie.
+     * <P>Type: long</P>
+     */
+    public static final String KEY_UPSERT_UPDATES = "upsert_updates";
+
+    /**
+     * Name of the provider method that returns the counters of the cache used for looking up a
+     * single movie by ID.
+     */
+    public static final String METHOD_GET_CACHE_STATS = "getCacheStats";
+
+    /**
+     * Bundle keys for the number of lookups answered from the cache, the number that had to go
+     * to the database, the number of movies evicted to make room and the number of movies
+     * currently cached.
+     * <P>Type: int</P>
+     */
+    public static final String KEY_CACHE_HITS = "cache_hits";
+    public static final String KEY_CACHE_MISSES = "cache_misses";
+    public static final String KEY_CACHE_EVICTIONS = "cache_evictions";
+    public static final String KEY_CACHE_SIZE = "cache_size";
+
     public static final class Movie implements BaseColumns{
         /**
          * Name of the Movie table.
@@ -52,12 +242,114 @@ public class TomatilloContract {
          */
         public static final String RATING = "rating";
 
+        /**
+         * Whether any movie matches, 1 or 0, in the single row of an existence check, see
+         * {@link #buildExistsUri}. The single row of {@link #COUNT_URI} has the number of
+         * movies in {@link #_COUNT} instead.
+         * <P>Type: INTEGER</P>
+         */
+        public static final String EXISTS = "exists";
+
+        /**
+         * Name of the index on {@link #RATING} and then {@link #_ID}.
+         */
+        public static final String RATING_INDEX_NAME = "movie_rating_index";
+
+        /**
+         * Name of the full-text search table of movie titles.
+         */
+        public static final String SEARCH_TABLE_NAME = "movie_search";
+
         /**
          * Base Uri for the Movie table.
          */
         public static final Uri CONTENT_URI =
                 BASE_CONTENT_URI.buildUpon().appendPath(TABLE_NAME).build();
 
+        /**
+         * Path segments for the number of movies, see {@link #COUNT_URI}, and for existence
+         * checks, see {@link #buildExistsUri}.
+         */
+        public static final String PATH_COUNT = "count";
+        public static final String PATH_EXISTS = "exists";
+
+        /**
+         * Uri for the number of movies, as a single row with {@link #_COUNT}. A selection given
+         * to the query counts only the movies matching it. The count is computed by the database
+         * without reading any movies, so it is much cheaper than the getCount of a query of
+         * {@link #CONTENT_URI}.
+         */
+        public static final Uri COUNT_URI =
+                CONTENT_URI.buildUpon().appendPath(PATH_COUNT).build();
+
+        /**
+         * Query parameter that turns an insert into an upsert, see {@link #buildUpsertUri}.
+         */
+        public static final String QUERY_PARAMETER_UPSERT = "upsert";
+
+        /**
+         * Query parameters of a chunked bulk insert, see {@link #buildChunkedInsertUri}.
+         */
+        public static final String QUERY_PARAMETER_CHUNK_SIZE = "chunk_size";
+        public static final String QUERY_PARAMETER_DURABILITY = "durability";
+
+        /**
+         * Durability of a chunked bulk insert where either every movie is inserted or, if the
+         * insert fails, none is. The write lock is held for the whole insert.
+         */
+        public static final String DURABILITY_ALL_OR_NOTHING = "all";
+
+        /**
+         * Durability of a chunked bulk insert where each chunk is committed on its own, so the
+         * chunks before a failure stay inserted. Other threads get the write lock between chunks.
+         */
+        public static final String DURABILITY_PER_CHUNK = "chunk";
+
+        /**
+         * Path segment for pages of movies ordered by {@link #_ID}.
+         */
+        public static final String PATH_PAGE = "page";
+
+        /**
+         * Path segment for pages of movies ordered by {@link #RATING}, highest first, and then
+         * by {@link #_ID}.
+         */
+        public static final String PATH_RATING_PAGE = "rating_page";
+
+        /**
+         * Path segment for movies with at least a given rating.
+         */
+        public static final String PATH_MIN_RATING = "min_rating";
+
+        /**
+         * Path segment for searching movie titles.
+         */
+        public static final String PATH_SEARCH = "search";
+
+        /**
+         * Path segment for the rating statistics, see {@link RatingStats}.
+         */
+        public static final String PATH_STATS = "stats";
+
+        /**
+         * Path segment for exporting every movie as a stream, see {@link #buildExportUri}.
+         */
+        public static final String PATH_EXPORT = "export";
+
+        /**
+         * Query parameter choosing the format of an export opened with openFile, either
+         * {@link #EXPORT_FORMAT_CSV}, the default, or {@link #EXPORT_FORMAT_NDJSON}.
+         */
+        public static final String QUERY_PARAMETER_FORMAT = "format";
+        public static final String EXPORT_FORMAT_CSV = "csv";
+        public static final String EXPORT_FORMAT_NDJSON = "ndjson";
+
+        /**
+         * The MIME types of the export formats, for openTypedAssetFileDescriptor.
+         */
+        public static final String EXPORT_CSV_TYPE = "text/csv";
+        public static final String EXPORT_NDJSON_TYPE = "application/x-ndjson";
+
         /**
          * The MIME type for a list of movie ratings.
          */
@@ -68,5 +360,198 @@ public class TomatilloContract {
          */
         public static final String CONTENT_ITEM_TYPE =
                 "vnd.android.cursor.item/" + CONTENT_AUTHORITY + "/" + TABLE_NAME;
+
+        /**
+         * The MIME types for the number of movies and for an existence check.
+         */
+        public static final String COUNT_TYPE =
+                "vnd.android.cursor.item/" + CONTENT_AUTHORITY + "/" + TABLE_NAME + "_count";
+        public static final String EXISTS_TYPE =
+                "vnd.android.cursor.item/" + CONTENT_AUTHORITY + "/" + TABLE_NAME + "_exists";
+
+        /**
+         * Builds a Uri for whether a movie with title is in the database, as a single row with
+         * {@link #EXISTS}. A selection given to the query must match the movie as well. The
+         * database stops at the first match, and the title index finds it without a scan.
+         */
+        public static Uri buildExistsUri(String title) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_EXISTS)
+                    .appendPath(title)
+                    .build();
+        }
+
+        /**
+         * Builds a Uri for whether any movie matches the selection given to the query, as a
+         * single row with {@link #EXISTS}.
+         */
+        public static Uri buildExistsUri() {
+            return CONTENT_URI.buildUpon().appendPath(PATH_EXISTS).build();
+        }
+
+        /**
+         * Builds a Uri to insert a movie into, which updates the {@link #RATING} of the movie
+         * with the same {@link #TITLE} instead if there is one. Both columns must be given.
+         */
+        public static Uri buildUpsertUri() {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_UPSERT, "true")
+                    .build();
+        }
+
+        /**
+         * Builds a Uri that streams every movie, ordered by {@link #_ID}, when opened with
+         * openInputStream or openTypedAssetFileDescriptor. CSV has a header line of the column
+         * names, NDJSON has one JSON object per movie and line. Both are UTF-8. The movies are
+         * read in small chunks while the stream is written, so exporting any number of movies
+         * takes the same memory.
+         * @param format {@link #EXPORT_FORMAT_CSV} or {@link #EXPORT_FORMAT_NDJSON}.
+         */
+        public static Uri buildExportUri(String format) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_EXPORT)
+                    .appendQueryParameter(QUERY_PARAMETER_FORMAT, format)
+                    .build();
+        }
+
+        /**
+         * Builds a Uri to bulk insert movies into in chunks of chunkSize movies. The time each
+         * chunk takes is recorded in the provider's metrics as bulkInsertChunk. With
+         * {@link #DURABILITY_PER_CHUNK}, each chunk is committed and the database is offered to
+         * any thread waiting for it, so queries and rating updates can run during a long
+         * insert.
+         * @param durability {@link #DURABILITY_ALL_OR_NOTHING} or {@link #DURABILITY_PER_CHUNK}.
+         */
+        public static Uri buildChunkedInsertUri(int chunkSize, String durability) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_CHUNK_SIZE, String.valueOf(chunkSize))
+                    .appendQueryParameter(QUERY_PARAMETER_DURABILITY, durability)
+                    .build();
+        }
+
+        /**
+         * Builds a Uri for the movies with a {@link #RATING} of at least minRating. Unless a sort
+         * order is given to the query, the movies are ordered by rating, highest first.
+         */
+        public static Uri buildMinRatingUri(int minRating) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_MIN_RATING)
+                    .appendPath(String.valueOf(minRating))
+                    .build();
+        }
+
+        /**
+         * Builds a Uri for the movies with a title containing words that start with each word of
+         * query, for search as you type. Unless a sort order is given to the query, the movies
+         * are ordered by title.
+         * @param query The text typed so far. It must not be empty.
+         */
+        public static Uri buildSearchUri(String query) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_SEARCH)
+                    .appendPath(query)
+                    .build();
+        }
+
+        /**
+         * Builds a Uri for the first page of movies ordered by {@link #_ID}.
+         * @param pageSize The maximum number of movies in the page.
+         */
+        public static Uri buildPageUri(int pageSize) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_PAGE)
+                    .appendPath(String.valueOf(pageSize))
+                    .build();
+        }
+
+        /**
+         * Builds a Uri for the page of movies that follows afterId, ordered by {@link #_ID}. The
+         * page is found with an index seek, so it costs the same however deep it is.
+         * @param pageSize The maximum number of movies in the page.
+         * @param afterId The {@link #_ID} of the last movie of the previous page.
+         */
+        public static Uri buildPageUri(int pageSize, long afterId) {
+            return buildPageUri(pageSize).buildUpon()
+                    .appendPath(String.valueOf(afterId))
+                    .build();
+        }
+
+        /**
+         * Builds a Uri for the first page of movies ordered by {@link #RATING}, highest first.
+         * Movies with the same rating are ordered by {@link #_ID}, highest first.
+         * @param pageSize The maximum number of movies in the page.
+         */
+        public static Uri buildRatingPageUri(int pageSize) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_RATING_PAGE)
+                    .appendPath(String.valueOf(pageSize))
+                    .build();
+        }
+
+        /**
+         * Builds a Uri for the page of movies ordered by {@link #RATING} that follows the movie
+         * with afterRating and afterId.
+         * @param pageSize The maximum number of movies in the page.
+         * @param afterRating The {@link #RATING} of the last movie of the previous page.
+         * @param afterId The {@link #_ID} of the last movie of the previous page.
+         */
+        public static Uri buildRatingPageUri(int pageSize, int afterRating, long afterId) {
+            return buildRatingPageUri(pageSize).buildUpon()
+                    .appendPath(String.valueOf(afterRating))
+                    .appendPath(String.valueOf(afterId))
+                    .build();
+        }
+    }
+
+    /**
+     * Statistics over the ratings of every movie, kept up to date as movies are written. The
+     * {@link #CONTENT_URI} returns a single row with the number of movies in {@link #_COUNT}, the
+     * {@link #AVERAGE_RATING} and the number of movies with each rating from 1 to 5.
+     */
+    public static final class RatingStats implements BaseColumns {
+        /**
+         * Name of the table holding the number of movies with each rating.
+         */
+        public static final String TABLE_NAME = "rating_stats";
+
+        /**
+         * The rating counted by a row of the table.
+         * <P>Type: INTEGER</P>
+         */
+        public static final String RATING = "rating";
+
+        /**
+         * The number of movies with the rating of a row of the table.
+         * <P>Type: INTEGER</P>
+         */
+        public static final String MOVIE_COUNT = "movie_count";
+
+        /**
+         * The average rating of every movie, or null if there are no movies.
+         * <P>Type: REAL</P>
+         */
+        public static final String AVERAGE_RATING = "average_rating";
+
+        /**
+         * The number of movies with each rating from 1 to 5.
+         * <P>Type: INTEGER</P>
+         */
+        public static final String RATING_1_COUNT = "rating_1_count";
+        public static final String RATING_2_COUNT = "rating_2_count";
+        public static final String RATING_3_COUNT = "rating_3_count";
+        public static final String RATING_4_COUNT = "rating_4_count";
+        public static final String RATING_5_COUNT = "rating_5_count";
+
+        /**
+         * Uri for the rating statistics.
+         */
+        public static final Uri CONTENT_URI =
+                Movie.CONTENT_URI.buildUpon().appendPath(Movie.PATH_STATS).build();
+
+        /**
+         * The MIME type for the rating statistics.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                "vnd.android.cursor.item/" + CONTENT_AUTHORITY + "/" + TABLE_NAME;
     }
 }
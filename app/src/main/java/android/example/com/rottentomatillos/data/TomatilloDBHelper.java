@@ -16,10 +16,24 @@
 package android.example.com.rottentomatillos.data;
 
 import android.content.Context;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 import android.util.Log;
+import android.example.com.rottentomatillos.R;
 import android.example.com.rottentomatillos.data.TomatilloContract.Movie;
+import android.example.com.rottentomatillos.data.TomatilloContract.RatingStats;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
 /**
  * This helps organize database versions and gives easy access to a
  * SQLiteDatabase object.
@@ -29,16 +43,141 @@ public class TomatilloDBHelper extends SQLiteOpenHelper {
 
     /**
      * Stores the current version of the database, starting at one. If you change the database schema,
-     * you must increment the database version.
+     * you must increment the database version, and update the schema the generateCatalogDatabase
+     * task in app/build.gradle builds the prebuilt database with. TomatilloDBHelperTest fails
+     * until the two match.
      * */
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 5;
     /**
      * The name of the sqlite database file on the device
      */
     private static final String DATABASE_NAME = "tomatillo_database.db";
+    /**
+     * The asset folder holding prebuilt databases, which are generated at build time by the
+     * generateCatalogDatabase task in app/build.gradle. A prebuilt database has the same name as
+     * the database file it is installed as.
+     */
+    private static final String DATABASE_ASSET_FOLDER = "databases/";
+    /**
+     * The most bytes copied per transfer while installing a prebuilt database.
+     */
+    private static final long COPY_CHUNK_BYTES = 64 * 1024;
+
+    private final Context mContext;
+    private final String mName;
+    /**
+     * Whether installing a prebuilt database has been tried, so it is only tried on first open.
+     */
+    private boolean mPrebuiltChecked;
+
+    /**
+     * Whether the database should use write-ahead logging.
+     */
+    private final boolean mWriteAheadLogging;
+    /**
+     * The number of pages the write-ahead log may grow to before it is checkpointed.
+     */
+    private final int mWalAutoCheckpointPages;
 
+    /**
+     * Creates a helper for the app's database, configured from the app's resources.
+     */
     public TomatilloDBHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME,
+                context.getResources().getBoolean(R.bool.use_write_ahead_logging));
+    }
+
+    /**
+     * Creates a helper for the database file name.
+     * @param writeAheadLogging Whether to use write-ahead logging, which lets queries run on
+     *                          other connections while a write transaction is in progress. The
+     *                          platform sizes the connection pool. Needs Honeycomb or later.
+     */
+    public TomatilloDBHelper(Context context, String name, boolean writeAheadLogging) {
+        super(context, name, null, DATABASE_VERSION);
+        mContext = context;
+        mName = name;
+        mWriteAheadLogging = writeAheadLogging;
+        mWalAutoCheckpointPages =
+                context.getResources().getInteger(R.integer.wal_autocheckpoint_pages);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(writeAheadLogging);
+        }
+    }
+
+    @Override
+    public synchronized SQLiteDatabase getWritableDatabase() {
+        installPrebuiltDatabase();
+        return super.getWritableDatabase();
+    }
+
+    @Override
+    public synchronized SQLiteDatabase getReadableDatabase() {
+        installPrebuiltDatabase();
+        return super.getReadableDatabase();
+    }
+
+    /**
+     * If there is no database file yet and the APK has a prebuilt one, copies it into place, so
+     * the catalog is there, already indexed, on first launch. The prebuilt database records its
+     * schema version, so opening it afterwards runs {@link #onUpgrade} if it is behind.
+     */
+    private void installPrebuiltDatabase() {
+        if (mPrebuiltChecked) return;
+        mPrebuiltChecked = true;
+        // An in-memory database has no file to install.
+        if (mName == null) return;
+
+        File database = mContext.getDatabasePath(mName);
+        if (database.exists()) return;
+
+        InputStream asset;
+        try {
+            asset = mContext.getAssets().open(DATABASE_ASSET_FOLDER + mName);
+        } catch (IOException e) {
+            // There is no prebuilt database, so onCreate builds an empty one.
+            return;
+        }
+
+        // Copying to a temporary file first means an interrupted copy is never opened.
+        File temp = new File(database.getPath() + ".prebuilt");
+        ReadableByteChannel source = Channels.newChannel(asset);
+        FileOutputStream out = null;
+        try {
+            database.getParentFile().mkdirs();
+            out = new FileOutputStream(temp);
+            FileChannel target = out.getChannel();
+            long position = 0;
+            long transferred;
+            while ((transferred = target.transferFrom(source, position, COPY_CHUNK_BYTES)) > 0) {
+                position += transferred;
+            }
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!temp.renameTo(database)) {
+                throw new IOException("Could not rename " + temp + " to " + database);
+            }
+            Log.i(LOG_TAG, "Installed prebuilt database of " + position + " bytes");
+        } catch (IOException e) {
+            // Fall back to building an empty database.
+            Log.e(LOG_TAG, "Could not install prebuilt database", e);
+            temp.delete();
+        } finally {
+            closeQuietly(source);
+            if (out != null) {
+                closeQuietly(out);
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Could not close " + closeable, e);
+        }
     }
 
     @Override
@@ -53,20 +192,150 @@ public class TomatilloDBHelper extends SQLiteOpenHelper {
                         Movie.RATING + " INTEGER NOT NULL " +
                         " );"
         );
+        createRatingIndex(sqLiteDatabase);
+        createTitleSearch(sqLiteDatabase);
+        createRatingStats(sqLiteDatabase);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase sqLiteDatabase) {
+        super.onOpen(sqLiteDatabase);
+        if (!mWriteAheadLogging || sqLiteDatabase.isReadOnly()
+                || Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        // Before Jelly Bean the helper cannot turn on write-ahead logging itself.
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            sqLiteDatabase.enableWriteAheadLogging();
+        }
+        // The pragma returns the new value, so it has to be run as a query.
+        DatabaseUtils.longForQuery(sqLiteDatabase,
+                "PRAGMA wal_autocheckpoint = " + mWalAutoCheckpointPages, null);
     }
 
-    // This method is used if the schema of the table changes. In this simplified example, we are
-    // dropping (which completely deletes) the old data, before remaking the table with the new
-    // updated schema.
-    // Less destructive implementations could use alter table to save the current version of the
-    // table and then create the new, updated table and populate it with the old data.
+    // This method is used if the schema of the table changes, including for a prebuilt database
+    // made for an older version. Each step below upgrades the
+    // schema by one version and keeps the movies that are already stored, so a database that
+    // is several versions behind is brought up to date one step at a time.
     @Override
-    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int newVersion, int oldVersion) {
+    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
 
         Log.i(LOG_TAG,
                 String.format("Upgrading database from version %d to %d", oldVersion, newVersion));
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + Movie.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        // Version 2 added the rating index, which version 5 replaces, so both are done by the
+        // version 5 step.
+        if (oldVersion < 3) {
+            createTitleSearch(sqLiteDatabase);
+        }
+        if (oldVersion < 4) {
+            createRatingStats(sqLiteDatabase);
+        }
+        if (oldVersion < 5) {
+            // The index of versions 2 to 4 had no _ID after the rating, so sorting rating pages
+            // by _ID needed a temporary sort of every matching movie.
+            sqLiteDatabase.execSQL("DROP INDEX IF EXISTS " + Movie.RATING_INDEX_NAME + ";");
+            createRatingIndex(sqLiteDatabase);
+        }
+    }
+
+    /**
+     * Creates an index on the rating, then the _ID, so rating pages, which are ordered by rating
+     * and then _ID, are read in index order without a temporary sort. It also holds the title,
+     * so queries that filter or sort by rating can be answered from the index alone.
+     */
+    private static void createRatingIndex(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL(
+                "CREATE INDEX IF NOT EXISTS " + Movie.RATING_INDEX_NAME + " ON " +
+                        Movie.TABLE_NAME + " (" + Movie.RATING + ", " + Movie._ID + ", " +
+                        Movie.TITLE + ");"
+        );
+    }
 
+    /**
+     * Creates a full-text index of the movie titles, filled with the movies already stored.
+     * Triggers keep it in step with the movie table, so every write path stays searchable. FTS3
+     * is used because FTS4 is not available on every Android version this app supports.
+     */
+    private static void createTitleSearch(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL(
+                "CREATE VIRTUAL TABLE " + Movie.SEARCH_TABLE_NAME +
+                        " USING fts3(" + Movie.TITLE + ");"
+        );
+        // The docid of each search row is the _ID of its movie.
+        sqLiteDatabase.execSQL(
+                "CREATE TRIGGER " + Movie.SEARCH_TABLE_NAME + "_insert AFTER INSERT ON " +
+                        Movie.TABLE_NAME + " BEGIN " +
+                        "INSERT INTO " + Movie.SEARCH_TABLE_NAME +
+                        " (docid, " + Movie.TITLE + ") VALUES (new." + Movie._ID +
+                        ", new." + Movie.TITLE + "); END;"
+        );
+        sqLiteDatabase.execSQL(
+                "CREATE TRIGGER " + Movie.SEARCH_TABLE_NAME + "_delete AFTER DELETE ON " +
+                        Movie.TABLE_NAME + " BEGIN " +
+                        "DELETE FROM " + Movie.SEARCH_TABLE_NAME +
+                        " WHERE docid = old." + Movie._ID + "; END;"
+        );
+        sqLiteDatabase.execSQL(
+                "CREATE TRIGGER " + Movie.SEARCH_TABLE_NAME + "_update AFTER UPDATE OF " +
+                        Movie.TITLE + " ON " + Movie.TABLE_NAME + " BEGIN " +
+                        "UPDATE " + Movie.SEARCH_TABLE_NAME + " SET " + Movie.TITLE +
+                        " = new." + Movie.TITLE + " WHERE docid = old." + Movie._ID + "; END;"
+        );
+        sqLiteDatabase.execSQL(
+                "INSERT INTO " + Movie.SEARCH_TABLE_NAME + " (docid, " + Movie.TITLE + ") " +
+                        "SELECT " + Movie._ID + ", " + Movie.TITLE + " FROM " + Movie.TABLE_NAME
+        );
+    }
+
+    /**
+     * Creates the table counting the movies with each rating, filled from the movies already
+     * stored. Triggers keep the counts up to date, so reading the statistics never has to look
+     * at the movie table.
+     */
+    private static void createRatingStats(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL(
+                "CREATE TABLE " + RatingStats.TABLE_NAME + " (" +
+                        RatingStats.RATING + " INTEGER PRIMARY KEY," +
+                        RatingStats.MOVIE_COUNT + " INTEGER NOT NULL DEFAULT 0" +
+                        " );"
+        );
+        for (int rating = 1; rating <= 5; rating++) {
+            sqLiteDatabase.execSQL("INSERT INTO " + RatingStats.TABLE_NAME + " (" +
+                    RatingStats.RATING + ") VALUES (" + rating + ");");
+        }
+        sqLiteDatabase.execSQL(
+                "INSERT OR REPLACE INTO " + RatingStats.TABLE_NAME + " (" +
+                        RatingStats.RATING + ", " + RatingStats.MOVIE_COUNT + ") " +
+                        "SELECT " + Movie.RATING + ", COUNT(*) FROM " + Movie.TABLE_NAME +
+                        " GROUP BY " + Movie.RATING
+        );
+
+        sqLiteDatabase.execSQL(
+                "CREATE TRIGGER " + RatingStats.TABLE_NAME + "_insert AFTER INSERT ON " +
+                        Movie.TABLE_NAME + " BEGIN " +
+                        countRating("new", 1) + " END;"
+        );
+        sqLiteDatabase.execSQL(
+                "CREATE TRIGGER " + RatingStats.TABLE_NAME + "_delete AFTER DELETE ON " +
+                        Movie.TABLE_NAME + " BEGIN " +
+                        countRating("old", -1) + " END;"
+        );
+        sqLiteDatabase.execSQL(
+                "CREATE TRIGGER " + RatingStats.TABLE_NAME + "_update AFTER UPDATE OF " +
+                        Movie.RATING + " ON " + Movie.TABLE_NAME + " BEGIN " +
+                        countRating("old", -1) + " " + countRating("new", 1) + " END;"
+        );
+    }
+
+    /**
+     * Returns the trigger statements that add delta to the count of the rating of the row, which
+     * is either "new" or "old".
+     */
+    private static String countRating(String row, int delta) {
+        return "INSERT OR IGNORE INTO " + RatingStats.TABLE_NAME + " (" + RatingStats.RATING +
+                ") VALUES (" + row + "." + Movie.RATING + "); " +
+                "UPDATE " + RatingStats.TABLE_NAME + " SET " + RatingStats.MOVIE_COUNT + " = " +
+                RatingStats.MOVIE_COUNT + " + (" + delta + ") WHERE " + RatingStats.RATING +
+                " = " + row + "." + Movie.RATING + ";";
     }
 }
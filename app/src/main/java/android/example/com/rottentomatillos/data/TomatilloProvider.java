@@ -15,17 +15,46 @@
  */
 package android.example.com.rottentomatillos.data;
 
+import android.annotation.TargetApi;
+import android.content.ClipDescription;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteConstraintException;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.example.com.rottentomatillos.R;
 import android.example.com.rottentomatillos.data.TomatilloContract.Movie;
+import android.example.com.rottentomatillos.data.TomatilloContract.RatingStats;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
 import android.util.Log;
 
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * This is a ContentProvider for the movie rating database. This content provider
  * works with {@link TomatilloContract} and {@link TomatilloDBHelper} to provide managed and secure
@@ -40,12 +69,164 @@ public class TomatilloProvider extends ContentProvider {
      */
     private TomatilloDBHelper mDBHelper;
 
+    /**
+     * Sends the change notifications for every write.
+     */
+    private ChangeNotifier mChangeNotifier;
+
+    /**
+     * Caches the most recently looked up movies, for queries of a single movie by ID.
+     */
+    private MovieCache mMovieCache;
+
+    /**
+     * Counts the inserted movies that were skipped, because the title was already in the
+     * database or a column was missing, and the upserts that updated an existing movie.
+     */
+    private final AtomicLong mSkippedInsertCount = new AtomicLong();
+    private final AtomicLong mUpsertUpdateCount = new AtomicLong();
+
+    /**
+     * Records the number of calls, rows and latency of each entry point for each kind of URI.
+     */
+    private final ProviderMetrics mMetrics = new ProviderMetrics(URI_CODES, URI_CODE_NAMES);
+
+    /**
+     * The compiled {@link #SET_RATING_SQL}, created the first time it is needed. Guarded by this.
+     */
+    private SQLiteStatement mSetRatingStatement;
+
+    /**
+     * Collects the URIs changed while {@link #applyBatch} runs on the current thread, so that
+     * they can be notified once the batch commits. It is empty outside of applyBatch.
+     */
+    private final ThreadLocal<Set<Uri>> mBatchChangedUris = new ThreadLocal<Set<Uri>>();
+
+    /**
+     * The imports that are running and were given an import ID, by ID.
+     */
+    private final ConcurrentHashMap<String, ImportProgress> mImports =
+            new ConcurrentHashMap<String, ImportProgress>();
+
+    /**
+     * The number of movies an import writes per transaction.
+     */
+    private int mImportChunkSize;
+
+    /**
+     * The titles in the database, so that bulkInsert only looks up the titles that may be
+     * there. It is built by the first bulkInsert, see {@link #getTitleFilter}, and null before.
+     */
+    private volatile TitleBloomFilter mTitleFilter;
+
     // URI Matcher Codes
     private static final int MOVIE = 100;
     private static final int MOVIE_WITH_ID = 101;
+    private static final int MOVIE_PAGE = 102;
+    private static final int MOVIE_PAGE_AFTER_ID = 103;
+    private static final int MOVIE_RATING_PAGE = 104;
+    private static final int MOVIE_RATING_PAGE_AFTER = 105;
+    private static final int MOVIE_WITH_MIN_RATING = 106;
+    private static final int MOVIE_SEARCH = 107;
+    private static final int RATING_STATS = 108;
+    private static final int MOVIE_EXPORT = 109;
+    private static final int MOVIE_COUNT = 110;
+    private static final int MOVIE_EXISTS = 111;
+
+    /**
+     * Every URI matcher code and its name, used to label the metrics.
+     */
+    private static final int[] URI_CODES = new int[]{
+            MOVIE, MOVIE_WITH_ID, MOVIE_PAGE, MOVIE_PAGE_AFTER_ID, MOVIE_RATING_PAGE,
+            MOVIE_RATING_PAGE_AFTER, MOVIE_WITH_MIN_RATING, MOVIE_SEARCH, RATING_STATS,
+            MOVIE_EXPORT, MOVIE_COUNT, MOVIE_EXISTS};
+    private static final String[] URI_CODE_NAMES = new String[]{
+            "movie", "movie_with_id", "movie_page", "movie_page_after_id", "movie_rating_page",
+            "movie_rating_page_after", "movie_with_min_rating", "movie_search", "rating_stats",
+            "movie_export", "movie_count", "movie_exists"};
 
     private static final UriMatcher sUriMatcher = buildUriMatcher();
 
+    /**
+     * The columns that can be queried from the movie URIs, and that are read when the projection
+     * is null. Reading only these, rather than *, keeps columns added later out of cursors that
+     * do not ask for them.
+     */
+    private static final String[] MOVIE_COLUMNS = new String[]{
+            Movie._ID, Movie.TITLE, Movie.RATING};
+    /**
+     * The columns that can be queried from the rating statistics URI.
+     */
+    private static final String[] RATING_STATS_COLUMNS = new String[]{
+            RatingStats._COUNT, RatingStats.AVERAGE_RATING, RatingStats.RATING_1_COUNT,
+            RatingStats.RATING_2_COUNT, RatingStats.RATING_3_COUNT, RatingStats.RATING_4_COUNT,
+            RatingStats.RATING_5_COUNT};
+
+    /**
+     * Maps each column a query may ask for to the SQL that reads it, per kind of URI.
+     */
+    private static final Map<String, String> sMovieProjectionMap =
+            buildProjectionMap(MOVIE_COLUMNS);
+    private static final Map<String, String> sRatingStatsProjectionMap =
+            buildProjectionMap(RATING_STATS_COLUMNS);
+
+    /**
+     * Reads the rating statistics from the few rows of the rating count table, so it takes the
+     * same time however many movies there are.
+     */
+    private static final String RATING_STATS_SQL =
+            "(SELECT IFNULL(SUM(" + RatingStats.MOVIE_COUNT + "), 0) AS " + RatingStats._COUNT +
+                    ", SUM(" + RatingStats.RATING + " * " + RatingStats.MOVIE_COUNT +
+                    ") * 1.0 / SUM(" + RatingStats.MOVIE_COUNT + ") AS " +
+                    RatingStats.AVERAGE_RATING +
+                    ", " + sumRatingCount(1, RatingStats.RATING_1_COUNT) +
+                    ", " + sumRatingCount(2, RatingStats.RATING_2_COUNT) +
+                    ", " + sumRatingCount(3, RatingStats.RATING_3_COUNT) +
+                    ", " + sumRatingCount(4, RatingStats.RATING_4_COUNT) +
+                    ", " + sumRatingCount(5, RatingStats.RATING_5_COUNT) +
+                    " FROM " + RatingStats.TABLE_NAME + ")";
+
+    /**
+     * Words with a special meaning in a full-text MATCH expression.
+     */
+    private static final Set<String> SEARCH_OPERATORS =
+            new HashSet<String>(Arrays.asList("AND", "OR", "NOT", "NEAR"));
+
+    /**
+     * Insert used by the bulk insert path. Rows whose title is already in the database, or that
+     * are missing a column, are ignored rather than reported with an exception.
+     */
+    private static final String INSERT_MOVIE_SQL =
+            "INSERT OR IGNORE INTO " + Movie.TABLE_NAME + " (" +
+                    Movie.TITLE + ", " + Movie.RATING + ") VALUES (?, ?)";
+
+    /**
+     * Lookup used by the bulk insert path for titles that may already be in the database. The
+     * title index answers it without reading the movie.
+     */
+    private static final String TITLE_EXISTS_SQL =
+            "SELECT EXISTS (SELECT 1 FROM " + Movie.TABLE_NAME + " WHERE " + Movie.TITLE +
+                    " = ?)";
+
+    /**
+     * The smallest number of titles a {@link TitleBloomFilter} is sized for, so that a filter
+     * built from a small table is not rebuilt after every few inserts.
+     */
+    private static final int MIN_TITLE_FILTER_CAPACITY = 1024;
+
+    /**
+     * Update used by {@link #setRating}.
+     */
+    private static final String SET_RATING_SQL =
+            "UPDATE " + Movie.TABLE_NAME + " SET " + Movie.RATING + " = ? WHERE " +
+                    Movie._ID + " = ?";
+
+    /**
+     * The MIME types the export URI can be opened as.
+     */
+    private static final String[] EXPORT_TYPES = new String[]{
+            Movie.EXPORT_CSV_TYPE, Movie.EXPORT_NDJSON_TYPE};
+
     /**
      * Builds a UriMatcher object for the movie database URIs.
      */
@@ -59,6 +240,31 @@ public class TomatilloProvider extends ContentProvider {
         // Need your content authority.
         matcher.addURI(TomatilloContract.CONTENT_AUTHORITY, Movie.TABLE_NAME, MOVIE);
         matcher.addURI(TomatilloContract.CONTENT_AUTHORITY, Movie.TABLE_NAME + "/#", MOVIE_WITH_ID);
+        // Paged URIs, with the page size followed by the key of the last row of the previous page.
+        matcher.addURI(TomatilloContract.CONTENT_AUTHORITY,
+                Movie.TABLE_NAME + "/" + Movie.PATH_PAGE + "/#", MOVIE_PAGE);
+        matcher.addURI(TomatilloContract.CONTENT_AUTHORITY,
+                Movie.TABLE_NAME + "/" + Movie.PATH_PAGE + "/#/#", MOVIE_PAGE_AFTER_ID);
+        matcher.addURI(TomatilloContract.CONTENT_AUTHORITY,
+                Movie.TABLE_NAME + "/" + Movie.PATH_RATING_PAGE + "/#", MOVIE_RATING_PAGE);
+        matcher.addURI(TomatilloContract.CONTENT_AUTHORITY,
+                Movie.TABLE_NAME + "/" + Movie.PATH_RATING_PAGE + "/#/#/#",
+                MOVIE_RATING_PAGE_AFTER);
+        matcher.addURI(TomatilloContract.CONTENT_AUTHORITY,
+                Movie.TABLE_NAME + "/" + Movie.PATH_MIN_RATING + "/#", MOVIE_WITH_MIN_RATING);
+        matcher.addURI(TomatilloContract.CONTENT_AUTHORITY,
+                Movie.TABLE_NAME + "/" + Movie.PATH_SEARCH + "/*", MOVIE_SEARCH);
+        matcher.addURI(TomatilloContract.CONTENT_AUTHORITY,
+                Movie.TABLE_NAME + "/" + Movie.PATH_STATS, RATING_STATS);
+        matcher.addURI(TomatilloContract.CONTENT_AUTHORITY,
+                Movie.TABLE_NAME + "/" + Movie.PATH_EXPORT, MOVIE_EXPORT);
+        // Counts and existence checks, either of any movie matching the selection or of a title.
+        matcher.addURI(TomatilloContract.CONTENT_AUTHORITY,
+                Movie.TABLE_NAME + "/" + Movie.PATH_COUNT, MOVIE_COUNT);
+        matcher.addURI(TomatilloContract.CONTENT_AUTHORITY,
+                Movie.TABLE_NAME + "/" + Movie.PATH_EXISTS, MOVIE_EXISTS);
+        matcher.addURI(TomatilloContract.CONTENT_AUTHORITY,
+                Movie.TABLE_NAME + "/" + Movie.PATH_EXISTS + "/*", MOVIE_EXISTS);
 
         return matcher;
     }
@@ -66,34 +272,195 @@ public class TomatilloProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mDBHelper = new TomatilloDBHelper(getContext());
+        mChangeNotifier = new ChangeNotifier(getContext().getContentResolver(),
+                getContext().getResources().getInteger(R.integer.change_notification_window_ms));
+        mMovieCache = new MovieCache(
+                getContext().getResources().getInteger(R.integer.movie_cache_size));
+        mImportChunkSize = getContext().getResources().getInteger(R.integer.import_chunk_size);
         return true;
     }
 
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * Queries like the method above, but stops reading the rows as soon as cancellationSignal
+     * is cancelled, by throwing OperationCanceledException. The signal is only ever passed on
+     * Jelly Bean and later, so on earlier versions it is null.
+     */
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder, CancellationSignal cancellationSignal) {
+        final long start = System.nanoTime();
+        // Get the constant integer representing the uri type.
+        final int match = sUriMatcher.match(uri);
+        int rows = 0;
+        try {
+            Cursor cursor = doQuery(match, uri, projection, selection, selectionArgs, sortOrder,
+                    cancellationSignal);
+            // Watch every movie Uri, since any write can change the rows of any of these queries.
+            // A CursorLoader then reloads on its own whenever the movies change.
+            cursor.setNotificationUri(getContext().getContentResolver(), Movie.CONTENT_URI);
+            // Runs the query. The statement only executes when the cursor window is first
+            // filled, and the resolver asks for the count right after query returns anyway, so
+            // this only moves that work inside the timing.
+            rows = cursor.getCount();
+            return cursor;
+        } finally {
+            mMetrics.record(ProviderMetrics.QUERY, match, start, rows);
+        }
+    }
+
+    private Cursor doQuery(int match, Uri uri, String[] projection, String selection,
+                           String[] selectionArgs, String sortOrder,
+                           CancellationSignal cancellationSignal) {
+        if (match == MOVIE_COUNT || match == MOVIE_EXISTS) {
+            return queryCount(match, uri, projection, selection, selectionArgs);
+        }
+        // Only the requested columns are read, so unused columns never fill the cursor window.
+        if (match == RATING_STATS) {
+            projection = mapProjection(projection, sRatingStatsProjectionMap, RATING_STATS_COLUMNS);
+        } else {
+            projection = mapProjection(projection, sMovieProjectionMap, MOVIE_COLUMNS);
+        }
         SQLiteDatabase db = mDBHelper.getReadableDatabase();
 
-        // Get the constant integer representing the uri type and use in the switch statement.
-        switch (sUriMatcher.match(uri)) {
+        switch (match) {
             // Case where all movie ratings are selected
             case MOVIE: {
-                Cursor cursor = db.query(
+                Cursor cursor = query(db,
                         Movie.TABLE_NAME,
-                        projection, selection, selectionArgs, null, null, sortOrder);
+                        projection, selection, selectionArgs, null, null, sortOrder, null,
+                        cancellationSignal);
                 return cursor;
             }
             // Case with only one movie rating selected, by ID
             case MOVIE_WITH_ID: {
-                Cursor cursor = db.query(
+                long id = ContentUris.parseId(uri);
+                if (MovieCache.canServe(projection)) {
+                    Cursor cursor = mMovieCache.get(id, projection);
+                    if (cursor == null) {
+                        cursor = queryIntoCache(db, id, projection);
+                    }
+                    return cursor;
+                }
+                Cursor cursor = query(db,
                         Movie.TABLE_NAME,
                         projection,
                         Movie._ID + " = ?",
-                        new String[]{String.valueOf(ContentUris.parseId(uri))},
+                        new String[]{String.valueOf(id)},
 
                         null,
                         null,
-                        sortOrder
+                        sortOrder,
+                        null,
+                        cancellationSignal
+                );
+                return cursor;
+            }
+            // Case where movies with at least a given rating are selected. Both the filter and the
+            // default order are answered by the rating index, without a temporary sort.
+            case MOVIE_WITH_MIN_RATING: {
+                Cursor cursor = query(db,
+                        Movie.TABLE_NAME,
+                        projection,
+                        appendSelection(selection, Movie.RATING + " >= ?"),
+                        appendSelectionArgs(selectionArgs,
+                                new String[]{uri.getPathSegments().get(2)}),
+                        null,
+                        null,
+                        sortOrder != null ? sortOrder : Movie.RATING + " DESC",
+                        null,
+                        cancellationSignal
+                );
+                return cursor;
+            }
+            // Case where movies are searched by title. The full-text index finds the matching
+            // IDs, and the movies are then looked up by ID.
+            case MOVIE_SEARCH: {
+                String searchMatch = buildPrefixMatch(uri.getLastPathSegment());
+                String searchSelection;
+                String[] searchSelectionArgs;
+                if (searchMatch == null) {
+                    // Nothing searchable was typed, so nothing matches.
+                    searchSelection = "0";
+                    searchSelectionArgs = null;
+                } else {
+                    searchSelection = Movie._ID + " IN (SELECT docid FROM " +
+                            Movie.SEARCH_TABLE_NAME + " WHERE " + Movie.SEARCH_TABLE_NAME +
+                            " MATCH ?)";
+                    searchSelectionArgs = new String[]{searchMatch};
+                }
+                Cursor cursor = query(db,
+                        Movie.TABLE_NAME,
+                        projection,
+                        appendSelection(selection, searchSelection),
+                        appendSelectionArgs(selectionArgs, searchSelectionArgs),
+                        null,
+                        null,
+                        sortOrder != null ? sortOrder : Movie.TITLE,
+                        null,
+                        cancellationSignal
+                );
+                return cursor;
+            }
+            // Case for the rating statistics, a single row read from the rating count table.
+            case RATING_STATS: {
+                Cursor cursor = query(db,
+                        RATING_STATS_SQL,
+                        projection, selection, selectionArgs, null, null, sortOrder, null,
+                        cancellationSignal);
+                return cursor;
+            }
+            // Cases for a page of movies. Rather than skipping over the previous pages with an
+            // OFFSET, the page starts right after the key of the last row of the previous page,
+            // so each page costs the same. Any sortOrder is ignored since the key sets the order.
+            case MOVIE_PAGE:
+            case MOVIE_PAGE_AFTER_ID: {
+                List<String> segments = uri.getPathSegments();
+                String keySelection = null;
+                String[] keySelectionArgs = null;
+                if (segments.size() > 3) {
+                    keySelection = Movie._ID + " > ?";
+                    keySelectionArgs = new String[]{segments.get(3)};
+                }
+                Cursor cursor = query(db,
+                        Movie.TABLE_NAME,
+                        projection,
+                        appendSelection(selection, keySelection),
+                        appendSelectionArgs(selectionArgs, keySelectionArgs),
+                        null,
+                        null,
+                        Movie._ID + " ASC",
+                        segments.get(2),
+                        cancellationSignal
+                );
+                return cursor;
+            }
+            case MOVIE_RATING_PAGE:
+            case MOVIE_RATING_PAGE_AFTER: {
+                List<String> segments = uri.getPathSegments();
+                String keySelection = null;
+                String[] keySelectionArgs = null;
+                if (segments.size() > 3) {
+                    String afterRating = segments.get(3);
+                    keySelection = Movie.RATING + " < ? OR (" +
+                            Movie.RATING + " = ? AND " + Movie._ID + " < ?)";
+                    keySelectionArgs = new String[]{afterRating, afterRating, segments.get(4)};
+                }
+                Cursor cursor = query(db,
+                        Movie.TABLE_NAME,
+                        projection,
+                        appendSelection(selection, keySelection),
+                        appendSelectionArgs(selectionArgs, keySelectionArgs),
+                        null,
+                        null,
+                        Movie.RATING + " DESC, " + Movie._ID + " DESC",
+                        segments.get(2),
+                        cancellationSignal
                 );
                 return cursor;
             }
@@ -106,13 +473,41 @@ public class TomatilloProvider extends ContentProvider {
 
     @Override
     public String getType(Uri uri) {
-        switch (sUriMatcher.match(uri)) {
-            case MOVIE: {
+        final long start = System.nanoTime();
+        final int match = sUriMatcher.match(uri);
+        try {
+            return doGetType(match, uri);
+        } finally {
+            mMetrics.record(ProviderMetrics.GET_TYPE, match, start, 0);
+        }
+    }
+
+    private static String doGetType(int match, Uri uri) {
+        switch (match) {
+            case MOVIE:
+            case MOVIE_PAGE:
+            case MOVIE_PAGE_AFTER_ID:
+            case MOVIE_RATING_PAGE:
+            case MOVIE_RATING_PAGE_AFTER:
+            case MOVIE_WITH_MIN_RATING:
+            case MOVIE_SEARCH: {
                 return Movie.CONTENT_DIR_TYPE;
             }
             case MOVIE_WITH_ID: {
                 return Movie.CONTENT_ITEM_TYPE;
             }
+            case RATING_STATS: {
+                return RatingStats.CONTENT_ITEM_TYPE;
+            }
+            case MOVIE_EXPORT: {
+                return Movie.EXPORT_CSV_TYPE;
+            }
+            case MOVIE_COUNT: {
+                return Movie.COUNT_TYPE;
+            }
+            case MOVIE_EXISTS: {
+                return Movie.EXISTS_TYPE;
+            }
             default: {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
             }
@@ -121,26 +516,40 @@ public class TomatilloProvider extends ContentProvider {
 
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
+        final long start = System.nanoTime();
+        final int match = sUriMatcher.match(uri);
+        Uri insertedUri = null;
+        try {
+            insertedUri = doInsert(match, uri, contentValues);
+            return insertedUri;
+        } finally {
+            mMetrics.record(ProviderMetrics.INSERT, match, start, insertedUri != null ? 1 : 0);
+        }
+    }
+
+    private Uri doInsert(int match, Uri uri, ContentValues contentValues) {
         checkInput(contentValues);
 
-        switch (sUriMatcher.match(uri)) {
+        switch (match) {
             case MOVIE: {
-                long id = -1;
-                // Insert the movie and catch the exception if it's already in the database.
-                try {
-                    id = mDBHelper.getWritableDatabase().insertOrThrow(
-                            Movie.TABLE_NAME, null, contentValues);
-                } catch (SQLiteConstraintException e) {
-                    Log.i(LOG_TAG,
-                            "Trying to insert " + contentValues.getAsString(Movie.TITLE) +
-                                    " but it's already in the database."
-                    );
-                    // Do nothing if the movie is already there.
+                if (isUpsert(uri)) {
+                    return upsert(contentValues);
+                }
+                // Insert the movie, or do nothing if it's already in the database. Conflicts are
+                // counted rather than thrown, since re-imports hit them for most rows.
+                long id = mDBHelper.getWritableDatabase().insertWithOnConflict(
+                        Movie.TABLE_NAME, null, contentValues, SQLiteDatabase.CONFLICT_IGNORE);
+                if (id == -1) {
+                    // it failed!
+                    mSkippedInsertCount.incrementAndGet();
+                    return null;
                 }
-                if (id == -1) return null; // it failed!
+                addToTitleFilter(contentValues.getAsString(Movie.TITLE));
+                // There is nothing to remove from the movie cache. Only existing movies are
+                // cached, and deleting a movie removes it, so a new _ID is never in the cache.
                 // Only call if the insert succeeded. This statement notifies anything watching
                 // that the data at this specific uri was changed.
-                getContext().getContentResolver().notifyChange(uri, null);
+                notifyChange(uri);
                 return ContentUris.withAppendedId(Movie.CONTENT_URI, id);
             }
             default: {
@@ -151,46 +560,137 @@ public class TomatilloProvider extends ContentProvider {
 
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
-        final SQLiteDatabase db = mDBHelper.getWritableDatabase();
+        final long start = System.nanoTime();
         final int match = sUriMatcher.match(uri);
+        int numberInserted = 0;
+        try {
+            numberInserted = doBulkInsert(match, uri, values);
+            return numberInserted;
+        } finally {
+            mMetrics.record(ProviderMetrics.BULK_INSERT, match, start, numberInserted);
+        }
+    }
+
+    private int doBulkInsert(int match, Uri uri, ContentValues[] values) {
+        final SQLiteDatabase db = mDBHelper.getWritableDatabase();
         switch (match) {
             case MOVIE:
+                // Without a chunk size the whole array is one chunk.
+                int chunkSize = getChunkSize(uri);
+                boolean perChunk = isPerChunkDurability(uri);
 
-                // Allows you to issue multiple transactions and then have them executed in a batch
-                db.beginTransaction();
+                // Everything that can fail before the first row is done before the transaction
+                // starts, so a failure cannot leave the transaction open.
+                TitleBloomFilter titleFilter = getTitleFilter(db);
+                // The titles inserted or found in the database by this batch. Only the first
+                // movie with a title can be inserted, so later ones are dropped before they reach
+                // the database.
+                Set<String> batchTitles = new HashSet<String>(values.length * 2);
 
                 // Counts the number of inserts that are successful
                 int numberInserted = 0;
+                int numberNotified = 0;
+                // The rows, and the inserts among them, already added to the skipped count.
+                // Committed chunks are counted as they commit, so a later failure does not lose
+                // them.
+                int numberRead = 0;
+                int rowsCounted = 0;
+                int insertsCounted = 0;
+
+                // Compile the INSERT once for the whole batch so each row only has to bind its
+                // values, rather than rebuilding the SQL for every row like insertOrThrow does.
+                SQLiteStatement insert = db.compileStatement(INSERT_MOVIE_SQL);
+                SQLiteStatement titleExists = null;
                 try {
-                    for (ContentValues value : values) {
-                        // Check the data is okay
-                        checkInput(value);
-                        // Try to insert
-                        long id = -1;
-                        try {
-                            id = db.insertOrThrow(Movie.TABLE_NAME, null, value);
-                        } catch (SQLiteConstraintException e) {
-                            Log.i(LOG_TAG,
-                                    "Trying to insert " + value.getAsString(Movie.TITLE) +
-                                            " but it's already in the database."
-                            );
-                            // Do nothing if the movie is already there.
+                    titleExists = db.compileStatement(TITLE_EXISTS_SQL);
+
+                    // Allows you to issue multiple transactions and then have them executed in a
+                    // batch
+                    db.beginTransaction();
+                    try {
+                        long chunkStart = System.nanoTime();
+                        int chunkRows = 0;
+                        for (ContentValues value : values) {
+                            // Check the data is okay
+                            checkInput(value);
+                            String title = value.getAsString(Movie.TITLE);
+                            boolean skip = false;
+                            if (title != null) {
+                                // A title the filter has not seen is certainly new and is
+                                // inserted right away. Any other title is looked up first, so
+                                // that movies already in the database are never attempted.
+                                if (batchTitles.contains(title)) {
+                                    skip = true;
+                                } else if (titleFilter.mightContain(title)
+                                        && isTitleInDatabase(titleExists, title)) {
+                                    skip = true;
+                                    batchTitles.add(title);
+                                }
+                            }
+                            if (!skip) {
+                                bindMovie(insert, value);
+                                // The statement ignores movies that are already in the database
+                                // or are missing a column, in which case executeInsert returns
+                                // -1 instead of throwing an exception. The title is only taken
+                                // once a movie with it was inserted, so a later complete movie
+                                // can still be.
+                                if (insert.executeInsert() != -1) {
+                                    numberInserted++;
+                                    titleFilter.add(title);
+                                    batchTitles.add(title);
+                                }
+                            }
+
+                            numberRead++;
+                            if (++chunkRows == chunkSize) {
+                                mMetrics.record(ProviderMetrics.BULK_INSERT_CHUNK, match,
+                                        chunkStart, chunkRows);
+                                if (perChunk) {
+                                    // Commits the chunk. If other threads are waiting for the
+                                    // database this lets them in first, otherwise it is committed
+                                    // here.
+                                    if (!db.yieldIfContendedSafely()) {
+                                        db.setTransactionSuccessful();
+                                        db.endTransaction();
+                                        db.beginTransaction();
+                                    }
+                                    mSkippedInsertCount.addAndGet((numberRead - rowsCounted)
+                                            - (numberInserted - insertsCounted));
+                                    rowsCounted = numberRead;
+                                    insertsCounted = numberInserted;
+                                    if (numberInserted > numberNotified) {
+                                        notifyChange(uri);
+                                        numberNotified = numberInserted;
+                                    }
+                                }
+                                chunkStart = System.nanoTime();
+                                chunkRows = 0;
+                            }
                         }
-                        // As long as the insert didn't fail, increment the numberInserted
-                        if (id != -1) {
-                            numberInserted++;
+                        if (chunkRows > 0 && chunkSize != Integer.MAX_VALUE) {
+                            mMetrics.record(ProviderMetrics.BULK_INSERT_CHUNK, match, chunkStart,
+                                    chunkRows);
                         }
+                        // If you get to the end without an exception, set the transaction as
+                        // successful. No further database operations should be done after this
+                        // call.
+                        db.setTransactionSuccessful();
+                    } finally {
+                        // Causes all of the issued transactions to occur at once
+                        db.endTransaction();
                     }
-                    // If you get to the end without an exception, set the transaction as successful
-                    // No further database operations should be done after this call.
-                    db.setTransactionSuccessful();
                 } finally {
-                    // Causes all of the issued transactions to occur at once
-                    db.endTransaction();
+                    insert.close();
+                    if (titleExists != null) {
+                        titleExists.close();
+                    }
                 }
-                if (numberInserted > 0) {
+                mSkippedInsertCount.addAndGet((values.length - rowsCounted)
+                        - (numberInserted - insertsCounted));
+                // As in insert, new movies cannot be in the movie cache, so nothing is removed.
+                if (numberInserted > numberNotified) {
                     // Notifies the content resolver that the underlying data has changed
-                    getContext().getContentResolver().notifyChange(uri, null);
+                    notifyChange(uri);
                 }
                 return numberInserted;
             default:
@@ -199,56 +699,261 @@ public class TomatilloProvider extends ContentProvider {
         }
     }
 
+    /**
+     * Returns the number of movies per chunk of a bulk insert on uri, see
+     * {@link Movie#buildChunkedInsertUri}, or Integer.MAX_VALUE if it is not chunked.
+     */
+    private static int getChunkSize(Uri uri) {
+        String chunkSize = uri.getQueryParameter(Movie.QUERY_PARAMETER_CHUNK_SIZE);
+        if (chunkSize == null) return Integer.MAX_VALUE;
+        try {
+            int size = Integer.parseInt(chunkSize);
+            if (size > 0) return size;
+        } catch (NumberFormatException e) {
+            // Reported below.
+        }
+        throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+    }
+
+    /**
+     * Returns whether each chunk of a bulk insert on uri is committed on its own.
+     */
+    private static boolean isPerChunkDurability(Uri uri) {
+        String durability = uri.getQueryParameter(Movie.QUERY_PARAMETER_DURABILITY);
+        if (durability == null || Movie.DURABILITY_ALL_OR_NOTHING.equals(durability)) {
+            return false;
+        }
+        if (Movie.DURABILITY_PER_CHUNK.equals(durability)) return true;
+        throw new IllegalArgumentException("Unknown durability: " + durability);
+    }
+
+    /**
+     * Returns the filter of the titles in the database, building it from the title index if
+     * there is none yet or the one there is has gone stale. A title inserted by another thread
+     * while it is built may be missing from it, which only means the insert of that title is
+     * attempted and ignored by the database.
+     */
+    private TitleBloomFilter getTitleFilter(SQLiteDatabase db) {
+        TitleBloomFilter filter = mTitleFilter;
+        if (filter != null && !filter.needsRebuild()) return filter;
+
+        Cursor titles = db.query(Movie.TABLE_NAME, new String[]{Movie.TITLE},
+                null, null, null, null, null);
+        try {
+            filter = new TitleBloomFilter(
+                    Math.max(MIN_TITLE_FILTER_CAPACITY, titles.getCount() * 2));
+            while (titles.moveToNext()) {
+                filter.add(titles.getString(0));
+            }
+        } finally {
+            titles.close();
+        }
+        mTitleFilter = filter;
+        return filter;
+    }
+
+    /**
+     * Adds a title that was inserted to the title filter, if it has been built.
+     */
+    private void addToTitleFilter(String title) {
+        TitleBloomFilter filter = mTitleFilter;
+        if (filter != null && title != null) {
+            filter.add(title);
+        }
+    }
+
+    /**
+     * Records that count titles left the database, so the title filter is rebuilt once too
+     * many of the titles in it are gone.
+     */
+    private void removeFromTitleFilter(int count) {
+        TitleBloomFilter filter = mTitleFilter;
+        if (filter != null && count > 0) {
+            filter.remove(count);
+        }
+    }
+
+    /**
+     * Returns whether a movie with title is in the database, using a statement compiled from
+     * {@link #TITLE_EXISTS_SQL}.
+     */
+    private static boolean isTitleInDatabase(SQLiteStatement titleExists, String title) {
+        titleExists.bindString(1, title);
+        return titleExists.simpleQueryForLong() != 0;
+    }
+
+    /**
+     * Returns whether an insert on uri should update the rating of a movie that is already in
+     * the database, see {@link Movie#buildUpsertUri}.
+     */
+    private static boolean isUpsert(Uri uri) {
+        return Boolean.parseBoolean(uri.getQueryParameter(Movie.QUERY_PARAMETER_UPSERT));
+    }
+
+    /**
+     * Inserts the movie in values, or updates its rating if a movie with the same title is
+     * already in the database. Returns the Uri of the movie, or null if the title or rating is
+     * missing.
+     */
+    private Uri upsert(ContentValues values) {
+        String title = values.getAsString(Movie.TITLE);
+        Integer rating = values.getAsInteger(Movie.RATING);
+        if (title == null || rating == null) return null;
+
+        final SQLiteDatabase db = mDBHelper.getWritableDatabase();
+        long id;
+        db.beginTransaction();
+        try {
+            // The title index finds the movie, so checking first costs no more than letting the
+            // insert fail, and nothing is thrown.
+            Cursor existing = db.query(Movie.TABLE_NAME, new String[]{Movie._ID},
+                    Movie.TITLE + " = ?", new String[]{title}, null, null, null);
+            try {
+                id = existing.moveToFirst() ? existing.getLong(0) : -1;
+            } finally {
+                existing.close();
+            }
+
+            if (id != -1) {
+                ContentValues ratingValues = new ContentValues();
+                ratingValues.put(Movie.RATING, rating);
+                db.update(Movie.TABLE_NAME, ratingValues,
+                        Movie._ID + " = ?", new String[]{String.valueOf(id)});
+                mUpsertUpdateCount.incrementAndGet();
+            } else {
+                id = db.insertOrThrow(Movie.TABLE_NAME, null, values);
+                addToTitleFilter(title);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        mMovieCache.remove(id);
+        notifyChange(Movie.CONTENT_URI);
+        return ContentUris.withAppendedId(Movie.CONTENT_URI, id);
+    }
+
+    /**
+     * Applies all of the operations in a single transaction. Either every operation is applied
+     * or, if one of them fails, none of them are. Change notifications are held back until the
+     * transaction commits and are then sent once per changed URI.
+     */
     @Override
-    public int delete(Uri uri, String selection, String[] selectionArgs) {
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
         final SQLiteDatabase db = mDBHelper.getWritableDatabase();
+        final Set<Uri> changedUris = new HashSet<Uri>();
+        ContentProviderResult[] results;
+
+        mBatchChangedUris.set(changedUris);
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            // If an operation threw, the transaction was never marked successful and is rolled
+            // back here.
+            db.endTransaction();
+            mBatchChangedUris.remove();
+            // Movies read during the batch may have been cached with values that were rolled
+            // back, or before the batch's changes could be seen by other connections.
+            mMovieCache.clear();
+        }
+
+        for (Uri uri : changedUris) {
+            notifyChange(uri);
+        }
+        return results;
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        final long start = System.nanoTime();
         final int match = sUriMatcher.match(uri);
+        int numberDeleted = 0;
+        try {
+            numberDeleted = doDelete(match, uri, selection, selectionArgs);
+            return numberDeleted;
+        } finally {
+            mMetrics.record(ProviderMetrics.DELETE, match, start, numberDeleted);
+        }
+    }
+
+    private int doDelete(int match, Uri uri, String selection, String[] selectionArgs) {
+        final SQLiteDatabase db = mDBHelper.getWritableDatabase();
         int numberDeleted;
         switch (match) {
             case MOVIE:
                 numberDeleted = db.delete(
                         Movie.TABLE_NAME, selection, selectionArgs);
+                removeFromTitleFilter(numberDeleted);
+                // Which movies matched the selection is not known, so empty the whole cache.
+                mMovieCache.clear();
                 break;
-            case MOVIE_WITH_ID:
+            case MOVIE_WITH_ID: {
+                long id = ContentUris.parseId(uri);
                 numberDeleted = db.delete(
                         Movie.TABLE_NAME,
                         Movie._ID + " = ?",
-                        new String[]{String.valueOf(ContentUris.parseId(uri))});
+                        new String[]{String.valueOf(id)});
+                removeFromTitleFilter(numberDeleted);
+                mMovieCache.remove(id);
                 break;
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
 
         // The first condition works because a null deletes all rows
         if (selection == null || numberDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return numberDeleted;
     }
 
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+        final long start = System.nanoTime();
+        final int match = sUriMatcher.match(uri);
+        int numberUpdated = 0;
+        try {
+            numberUpdated = doUpdate(match, uri, contentValues, selection, selectionArgs);
+            return numberUpdated;
+        } finally {
+            mMetrics.record(ProviderMetrics.UPDATE, match, start, numberUpdated);
+        }
+    }
+
+    private int doUpdate(int match, Uri uri, ContentValues contentValues, String selection,
+                         String[] selectionArgs) {
         final SQLiteDatabase db = mDBHelper.getWritableDatabase();
         int numberUpdated = 0;
 
         checkInput(contentValues);
 
-        switch (sUriMatcher.match(uri)) {
+        switch (match) {
             case MOVIE: {
                 numberUpdated = db.update(
                         Movie.TABLE_NAME,
                         contentValues,
                         selection,
                         selectionArgs);
+                // Which movies matched the selection is not known, so empty the whole cache.
+                if (numberUpdated != 0) {
+                    mMovieCache.clear();
+                }
                 break;
             }
             case MOVIE_WITH_ID: {
+                long id = ContentUris.parseId(uri);
                 numberUpdated = db.update(
                         Movie.TABLE_NAME,
                         contentValues,
                         Movie._ID + " = ?",
-                        new String[]{String.valueOf(ContentUris.parseId(uri))}
+                        new String[]{String.valueOf(id)}
                 );
+                mMovieCache.remove(id);
                 break;
             }
             default: {
@@ -256,11 +961,584 @@ public class TomatilloProvider extends ContentProvider {
             }
         }
         if (numberUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            // The old titles of renamed movies are gone and the new one is in the database.
+            String title = contentValues.getAsString(Movie.TITLE);
+            if (title != null) {
+                removeFromTitleFilter(numberUpdated);
+                addToTitleFilter(title);
+            }
+            notifyChange(uri);
         }
         return numberUpdated;
     }
 
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (TomatilloContract.METHOD_IMPORT_CATALOG.equals(method)) {
+            return importCatalog(arg, extras);
+        }
+        if (TomatilloContract.METHOD_GET_IMPORT_PROGRESS.equals(method)) {
+            ImportProgress progress = mImports.get(getImportId(extras));
+            return progress != null ? progress.toBundle() : null;
+        }
+        if (TomatilloContract.METHOD_CANCEL_IMPORT.equals(method)) {
+            ImportProgress progress = mImports.get(getImportId(extras));
+            if (progress != null) {
+                progress.cancelled = true;
+            }
+            return null;
+        }
+        if (TomatilloContract.METHOD_SET_RATINGS.equals(method)) {
+            if (extras == null) {
+                throw new IllegalArgumentException("Cannot set ratings without extras");
+            }
+            Bundle result = new Bundle();
+            result.putInt(TomatilloContract.KEY_ROWS_CHANGED, setRatings(
+                    extras.getLongArray(TomatilloContract.KEY_MOVIE_IDS),
+                    extras.getIntArray(TomatilloContract.KEY_RATINGS)));
+            return result;
+        }
+        if (TomatilloContract.METHOD_SET_RATING.equals(method)) {
+            if (extras == null) {
+                throw new IllegalArgumentException("Cannot set a rating without extras");
+            }
+            Bundle result = new Bundle();
+            result.putInt(TomatilloContract.KEY_ROWS_CHANGED, setRating(
+                    extras.getLong(TomatilloContract.KEY_MOVIE_ID),
+                    extras.getInt(TomatilloContract.KEY_RATING)));
+            return result;
+        }
+        if (TomatilloContract.METHOD_GET_METRICS.equals(method)) {
+            return mMetrics.snapshot();
+        }
+        if (TomatilloContract.METHOD_GET_NOTIFICATION_STATS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(TomatilloContract.KEY_NOTIFICATIONS_DISPATCHED,
+                    mChangeNotifier.getDispatchedCount());
+            result.putLong(TomatilloContract.KEY_NOTIFICATIONS_SUPPRESSED,
+                    mChangeNotifier.getSuppressedCount());
+            return result;
+        }
+        if (TomatilloContract.METHOD_GET_INSERT_STATS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(TomatilloContract.KEY_SKIPPED_INSERTS, mSkippedInsertCount.get());
+            result.putLong(TomatilloContract.KEY_UPSERT_UPDATES, mUpsertUpdateCount.get());
+            return result;
+        }
+        if (TomatilloContract.METHOD_GET_CACHE_STATS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(TomatilloContract.KEY_CACHE_HITS, mMovieCache.hitCount());
+            result.putInt(TomatilloContract.KEY_CACHE_MISSES, mMovieCache.missCount());
+            result.putInt(TomatilloContract.KEY_CACHE_EVICTIONS, mMovieCache.evictionCount());
+            result.putInt(TomatilloContract.KEY_CACHE_SIZE, mMovieCache.size());
+            return result;
+        }
+        throw new UnsupportedOperationException("Unknown method: " + method);
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (sUriMatcher.match(uri) != MOVIE_EXPORT) {
+            return super.openFile(uri, mode);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Export can only be opened for reading: " + uri);
+        }
+        String format = uri.getQueryParameter(Movie.QUERY_PARAMETER_FORMAT);
+        if (format == null || Movie.EXPORT_FORMAT_CSV.equals(format)) {
+            return openExport(false);
+        }
+        if (Movie.EXPORT_FORMAT_NDJSON.equals(format)) {
+            return openExport(true);
+        }
+        throw new FileNotFoundException("Unknown export format: " + format);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    @Override
+    public String[] getStreamTypes(Uri uri, String mimeTypeFilter) {
+        if (sUriMatcher.match(uri) != MOVIE_EXPORT) {
+            return super.getStreamTypes(uri, mimeTypeFilter);
+        }
+        List<String> types = new ArrayList<String>();
+        for (String type : EXPORT_TYPES) {
+            if (ClipDescription.compareMimeTypes(type, mimeTypeFilter)) {
+                types.add(type);
+            }
+        }
+        return types.isEmpty() ? null : types.toArray(new String[types.size()]);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    @Override
+    public AssetFileDescriptor openTypedAssetFile(Uri uri, String mimeTypeFilter, Bundle opts)
+            throws FileNotFoundException {
+        if (sUriMatcher.match(uri) != MOVIE_EXPORT) {
+            return super.openTypedAssetFile(uri, mimeTypeFilter, opts);
+        }
+        // The first type that matches wins, so a filter of */* gets CSV.
+        for (String type : EXPORT_TYPES) {
+            if (ClipDescription.compareMimeTypes(type, mimeTypeFilter)) {
+                return new AssetFileDescriptor(openExport(Movie.EXPORT_NDJSON_TYPE.equals(type)),
+                        0, AssetFileDescriptor.UNKNOWN_LENGTH);
+            }
+        }
+        throw new FileNotFoundException("Cannot export movies as " + mimeTypeFilter);
+    }
+
+    /**
+     * Returns the read end of a pipe that a background thread fills with every movie, see
+     * {@link MovieExporter}. The export is recorded in the metrics once it has been written.
+     * @param ndjson Whether to write NDJSON rather than CSV.
+     */
+    private ParcelFileDescriptor openExport(final boolean ndjson) throws FileNotFoundException {
+        final long start = System.nanoTime();
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Could not create a pipe: " + e.getMessage());
+        }
+        final SQLiteDatabase db = mDBHelper.getReadableDatabase();
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int rows = 0;
+                OutputStream out = new ParcelFileDescriptor.AutoCloseOutputStream(pipe[1]);
+                try {
+                    rows = MovieExporter.write(db, ndjson, out);
+                } catch (IOException e) {
+                    // Most likely the reader closed its end before the end of the export.
+                    Log.w(LOG_TAG, "Export stopped", e);
+                } finally {
+                    try {
+                        out.close();
+                    } catch (IOException e) {
+                        Log.w(LOG_TAG, "Could not close export", e);
+                    }
+                    mMetrics.record(ProviderMetrics.OPEN_FILE, MOVIE_EXPORT, start, rows);
+                }
+            }
+        }, "MovieExport").start();
+
+        return pipe[0];
+    }
+
+    /**
+     * Imports the movies of the file at the Uri source, or of the file descriptor in extras, see
+     * {@link TomatilloContract#METHOD_IMPORT_CATALOG}. Each chunk of movies is written in its own
+     * transaction with a compiled insert, and only the movie being read is held in memory. Once it
+     * started, the import is recorded in the metrics even if it fails.
+     */
+    private Bundle importCatalog(String source, Bundle extras) {
+        ImportProgress progress = new ImportProgress();
+        String importId = extras != null ? extras.getString(TomatilloContract.KEY_IMPORT_ID) : null;
+        if (importId != null && mImports.putIfAbsent(importId, progress) != null) {
+            throw new IllegalStateException("An import is already running with ID " + importId);
+        }
+
+        CatalogReader reader = null;
+        try {
+            reader = new CatalogReader(openImportSource(source, extras),
+                    isNdjsonImport(source, extras));
+            SQLiteDatabase db = mDBHelper.getWritableDatabase();
+            SQLiteStatement insert = db.compileStatement(INSERT_MOVIE_SQL);
+            try {
+                boolean more = true;
+                while (more && !progress.cancelled) {
+                    long chunkRead = 0;
+                    long chunkImported = 0;
+                    db.beginTransaction();
+                    try {
+                        while (chunkRead < mImportChunkSize && (more = reader.next())) {
+                            chunkRead++;
+                            if (!reader.isValid()) continue;
+                            insert.bindString(1, reader.getTitle());
+                            insert.bindLong(2, reader.getRating());
+                            // As in bulkInsert, movies already in the database are ignored.
+                            if (insert.executeInsert() != -1) {
+                                chunkImported++;
+                                addToTitleFilter(reader.getTitle());
+                            }
+                        }
+                        db.setTransactionSuccessful();
+                    } finally {
+                        db.endTransaction();
+                    }
+                    // The progress only counts committed chunks.
+                    progress.rowsRead += chunkRead;
+                    progress.rowsImported += chunkImported;
+                    mSkippedInsertCount.addAndGet(chunkRead - chunkImported);
+                    if (chunkImported > 0) {
+                        notifyChange(Movie.CONTENT_URI);
+                    }
+                }
+            } finally {
+                insert.close();
+            }
+        } catch (IOException e) {
+            // IllegalArgumentException, unlike IOException, reaches callers in other processes.
+            throw new IllegalArgumentException("Could not import " + source + ": " +
+                    e.getMessage());
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Could not close import", e);
+                }
+            }
+            if (importId != null) {
+                mImports.remove(importId);
+            }
+            mMetrics.record(ProviderMetrics.IMPORT_CATALOG, MOVIE, progress.startNanos,
+                    (int) progress.rowsImported);
+        }
+        return progress.toBundle();
+    }
+
+    private InputStream openImportSource(String source, Bundle extras)
+            throws FileNotFoundException {
+        ParcelFileDescriptor descriptor = extras != null
+                ? (ParcelFileDescriptor) extras.getParcelable(TomatilloContract.KEY_FILE_DESCRIPTOR)
+                : null;
+        if (descriptor != null) {
+            return new ParcelFileDescriptor.AutoCloseInputStream(descriptor);
+        }
+        if (source == null) {
+            throw new IllegalArgumentException("Cannot import without a Uri or file descriptor");
+        }
+        return getContext().getContentResolver().openInputStream(Uri.parse(source));
+    }
+
+    private static boolean isNdjsonImport(String source, Bundle extras) {
+        String format = extras != null
+                ? extras.getString(TomatilloContract.KEY_IMPORT_FORMAT) : null;
+        if (format != null) {
+            if (Movie.EXPORT_FORMAT_NDJSON.equals(format)) return true;
+            if (Movie.EXPORT_FORMAT_CSV.equals(format)) return false;
+            throw new IllegalArgumentException("Unknown import format: " + format);
+        }
+        if (source == null) return false;
+        String path = Uri.parse(source).getPath();
+        if (path == null) return false;
+        path = path.toLowerCase(Locale.US);
+        return path.endsWith(".ndjson") || path.endsWith(".jsonl");
+    }
+
+    private static String getImportId(Bundle extras) {
+        String importId = extras != null ? extras.getString(TomatilloContract.KEY_IMPORT_ID) : null;
+        if (importId == null) {
+            throw new IllegalArgumentException("An import ID is needed");
+        }
+        return importId;
+    }
+
+    /**
+     * The progress of one import. It is written only by the importing thread, after each chunk
+     * commits, and read by any thread.
+     */
+    private static class ImportProgress {
+        final long startNanos = System.nanoTime();
+        volatile long rowsRead;
+        volatile long rowsImported;
+        volatile boolean cancelled;
+
+        Bundle toBundle() {
+            long elapsedNanos = System.nanoTime() - startNanos;
+            Bundle result = new Bundle();
+            result.putLong(TomatilloContract.KEY_ROWS_READ, rowsRead);
+            result.putLong(TomatilloContract.KEY_ROWS_IMPORTED, rowsImported);
+            result.putLong(TomatilloContract.KEY_ELAPSED_MILLIS, elapsedNanos / 1000000);
+            result.putDouble(TomatilloContract.KEY_ROWS_PER_SECOND,
+                    elapsedNanos > 0 ? rowsRead * 1e9 / elapsedNanos : 0);
+            result.putBoolean(TomatilloContract.KEY_CANCELLED, cancelled);
+            return result;
+        }
+    }
+
+    /**
+     * Sets the rating of the movie with id and returns the number of rows changed. This is the
+     * same as an update of the movie's Uri, but skips the Uri matching and ContentValues and
+     * runs a statement that is compiled only once. It is only reached through call(), which
+     * needs Honeycomb.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private int setRating(long id, int rating) {
+        final long start = System.nanoTime();
+        int numberUpdated = 0;
+        try {
+            checkRating(rating);
+            SQLiteDatabase db = mDBHelper.getWritableDatabase();
+            synchronized (this) {
+                numberUpdated = executeSetRating(db, id, rating);
+            }
+            mMovieCache.remove(id);
+            if (numberUpdated != 0) {
+                notifyChange(ContentUris.withAppendedId(Movie.CONTENT_URI, id));
+            }
+            return numberUpdated;
+        } finally {
+            mMetrics.record(ProviderMetrics.UPDATE, MOVIE_WITH_ID, start, numberUpdated);
+        }
+    }
+
+    /**
+     * Sets the rating of each movie in ids to the rating at the same index of ratings, in one
+     * transaction, and returns the number of rows changed. It is only reached through call(),
+     * which needs Honeycomb.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private int setRatings(long[] ids, int[] ratings) {
+        final long start = System.nanoTime();
+        int numberUpdated = 0;
+        try {
+            if (ids == null || ratings == null || ids.length != ratings.length) {
+                throw new IllegalArgumentException("Need as many ratings as movie IDs");
+            }
+            for (int rating : ratings) {
+                checkRating(rating);
+            }
+
+            SQLiteDatabase db = mDBHelper.getWritableDatabase();
+            // Lock this before starting the transaction, in the same order as setRating, so the
+            // two can never wait on each other.
+            synchronized (this) {
+                db.beginTransaction();
+                try {
+                    for (int i = 0; i < ids.length; i++) {
+                        numberUpdated += executeSetRating(db, ids[i], ratings[i]);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+            for (long id : ids) {
+                mMovieCache.remove(id);
+            }
+            if (numberUpdated != 0) {
+                notifyChange(Movie.CONTENT_URI);
+            }
+            return numberUpdated;
+        } finally {
+            mMetrics.record(ProviderMetrics.UPDATE, MOVIE, start, numberUpdated);
+        }
+    }
+
+    /**
+     * Runs {@link #SET_RATING_SQL} for one movie and returns the number of rows changed. A
+     * compiled statement can only be used by one thread at a time, so the caller must hold the
+     * lock on this.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private int executeSetRating(SQLiteDatabase db, long id, int rating) {
+        if (mSetRatingStatement == null) {
+            mSetRatingStatement = db.compileStatement(SET_RATING_SQL);
+        }
+        mSetRatingStatement.bindLong(1, rating);
+        mSetRatingStatement.bindLong(2, id);
+        return mSetRatingStatement.executeUpdateDelete();
+    }
+
+    /**
+     * Returns a projection map that reads each of columns as itself.
+     */
+    private static Map<String, String> buildProjectionMap(String[] columns) {
+        Map<String, String> map = new HashMap<String, String>();
+        for (String column : columns) {
+            map.put(column, column);
+        }
+        return map;
+    }
+
+    /**
+     * Returns the SQL columns to read for projection, each requested column mapped through map.
+     * @param defaultColumns The columns to read if projection is null.
+     * @throws IllegalArgumentException If a requested column is not in map.
+     */
+    private static String[] mapProjection(String[] projection, Map<String, String> map,
+                                          String[] defaultColumns) {
+        if (projection == null) return defaultColumns;
+        String[] columns = new String[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            columns[i] = map.get(projection[i]);
+            if (columns[i] == null) {
+                throw new IllegalArgumentException("Unknown column: " + projection[i]);
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Answers a count or existence check with a single row holding the result. The database
+     * computes it with a compiled statement, so no movie is read into a cursor window.
+     */
+    private Cursor queryCount(int match, Uri uri, String[] projection, String selection,
+                              String[] selectionArgs) {
+        String column;
+        if (match == MOVIE_EXISTS) {
+            List<String> segments = uri.getPathSegments();
+            if (segments.size() > 2) {
+                selection = appendSelection(selection, Movie.TITLE + " = ?");
+                selectionArgs = appendSelectionArgs(selectionArgs,
+                        new String[]{segments.get(2)});
+            }
+            column = Movie.EXISTS;
+        } else {
+            column = Movie._COUNT;
+        }
+        if (projection != null) {
+            for (String requested : projection) {
+                if (!column.equals(requested)) {
+                    throw new IllegalArgumentException("Unknown column: " + requested);
+                }
+            }
+        }
+
+        String from = Movie.TABLE_NAME;
+        if (selection != null && selection.length() > 0) {
+            from += " WHERE " + selection;
+        }
+        String sql = match == MOVIE_EXISTS
+                ? "SELECT EXISTS (SELECT 1 FROM " + from + ")"
+                : "SELECT COUNT(*) FROM " + from;
+        // Compiles the statement and reads its single value with simpleQueryForLong.
+        long value = DatabaseUtils.longForQuery(mDBHelper.getReadableDatabase(), sql,
+                selectionArgs);
+
+        MatrixCursor cursor = new MatrixCursor(new String[]{column}, 1);
+        cursor.addRow(new Object[]{value});
+        return cursor;
+    }
+
+    /**
+     * Runs a query like {@link SQLiteDatabase#query}, which stops when cancellationSignal is
+     * cancelled. Without a signal it calls the query method from before Jelly Bean, so it works
+     * on every version.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static Cursor query(SQLiteDatabase db, String table, String[] columns,
+                                String selection, String[] selectionArgs, String groupBy,
+                                String having, String orderBy, String limit,
+                                CancellationSignal cancellationSignal) {
+        if (cancellationSignal == null) {
+            return db.query(table, columns, selection, selectionArgs, groupBy, having, orderBy,
+                    limit);
+        }
+        return db.query(false, table, columns, selection, selectionArgs, groupBy, having,
+                orderBy, limit, cancellationSignal);
+    }
+
+    /**
+     * Reads the movie with id from the database, stores it in the movie cache and returns a
+     * cursor with the columns in projection.
+     */
+    private Cursor queryIntoCache(SQLiteDatabase db, long id, String[] projection) {
+        long generation = mMovieCache.getGeneration();
+        Cursor row = db.query(
+                Movie.TABLE_NAME,
+                MovieCache.COLUMNS,
+                Movie._ID + " = ?",
+                new String[]{String.valueOf(id)},
+                null,
+                null,
+                null
+        );
+        try {
+            if (!row.moveToFirst()) {
+                return MovieCache.emptyCursor(projection);
+            }
+            return mMovieCache.put(generation, id, row.getString(1), row.getLong(2), projection);
+        } finally {
+            row.close();
+        }
+    }
+
+    /**
+     * Notifies anything watching that the data at uri was changed. While a batch is being
+     * applied the uri is remembered instead, and notified when the batch commits. Notifications
+     * are sent through {@link ChangeNotifier}, which merges changes to the same uri made within
+     * a short window.
+     */
+    private void notifyChange(Uri uri) {
+        Set<Uri> batchChangedUris = mBatchChangedUris.get();
+        if (batchChangedUris != null) {
+            batchChangedUris.add(uri);
+        } else {
+            mChangeNotifier.notifyChange(uri);
+        }
+    }
+
+    /**
+     * Returns a selection that matches both selection and extra. Either may be null.
+     */
+    private static String appendSelection(String selection, String extra) {
+        if (extra == null) return selection;
+        if (selection == null || selection.length() == 0) return extra;
+        return "(" + selection + ") AND (" + extra + ")";
+    }
+
+    /**
+     * Returns the arguments for a selection built by {@link #appendSelection}. Either may be null.
+     */
+    private static String[] appendSelectionArgs(String[] selectionArgs, String[] extraArgs) {
+        if (extraArgs == null) return selectionArgs;
+        if (selectionArgs == null) return extraArgs;
+        String[] args = new String[selectionArgs.length + extraArgs.length];
+        System.arraycopy(selectionArgs, 0, args, 0, selectionArgs.length);
+        System.arraycopy(extraArgs, 0, args, selectionArgs.length, extraArgs.length);
+        return args;
+    }
+
+    /**
+     * Returns a column for {@link #RATING_STATS_SQL} with the number of movies rated rating.
+     */
+    private static String sumRatingCount(int rating, String column) {
+        return "SUM(CASE WHEN " + RatingStats.RATING + " = " + rating + " THEN " +
+                RatingStats.MOVIE_COUNT + " ELSE 0 END) AS " + column;
+    }
+
+    /**
+     * Turns typed text into a full-text MATCH expression where every word is a prefix, so that
+     * "spot sun" matches "Eternal Sunshine of the Spotless Mind". Punctuation is dropped so that
+     * it cannot be read as query syntax, and so are the AND, OR, NOT and NEAR operators, which
+     * are only operators in upper case. Returns null if there are no words.
+     */
+    private static String buildPrefixMatch(String query) {
+        StringBuilder match = new StringBuilder();
+        for (String word : query.split("[^\\p{L}\\p{N}]+")) {
+            if (word.length() == 0) continue;
+            if (match.length() > 0) match.append(' ');
+            if (SEARCH_OPERATORS.contains(word)) {
+                word = word.toLowerCase(Locale.US);
+            }
+            match.append(word).append('*');
+        }
+        return match.length() > 0 ? match.toString() : null;
+    }
+
+    /**
+     * Binds the title and rating in values to a statement compiled from {@link #INSERT_MOVIE_SQL}.
+     * Missing values are bound as null so that the statement ignores the row.
+     */
+    private static void bindMovie(SQLiteStatement statement, ContentValues values) {
+        String title = values.getAsString(Movie.TITLE);
+        if (title == null) {
+            statement.bindNull(1);
+        } else {
+            statement.bindString(1, title);
+        }
+
+        Long rating = values.getAsLong(Movie.RATING);
+        if (rating == null) {
+            statement.bindNull(2);
+        } else {
+            statement.bindLong(2, rating);
+        }
+    }
+
     /**
      * Checks whether values can be inserted in the database. Throws IllegalArgumentException if:
      * 1. Values is null
@@ -273,7 +1551,16 @@ public class TomatilloProvider extends ContentProvider {
 
         Integer rating = values.getAsInteger(Movie.RATING);
 
-        if ((rating != null) && (rating.intValue() < 1 || rating.intValue() > 5)) {
+        if (rating != null) {
+            checkRating(rating);
+        }
+    }
+
+    /**
+     * Throws IllegalArgumentException if the rating is not between 1 and 5.
+     */
+    private static void checkRating(long rating) {
+        if (rating < 1 || rating > 5) {
             throw new IllegalArgumentException("The rating " +
                    rating + " is not between 1 and 5.");
         }
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.rottentomatillos.benchmark;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * This records the latency of each call of one operation and the rows the calls affected, and
+ * reports them as one JSON object.
+ */
+class Latencies {
+    private final String mOperation;
+    private final int mTableRows;
+    private long[] mNanos;
+    private int mCount;
+    private long mRows;
+
+    /**
+     * @param operation The name of the operation, such as "queryById".
+     * @param tableRows The number of movies in the table the operation ran against.
+     * @param expectedCount The number of calls expected, to size the storage.
+     */
+    Latencies(String operation, int tableRows, int expectedCount) {
+        mOperation = operation;
+        mTableRows = tableRows;
+        mNanos = new long[Math.max(1, expectedCount)];
+    }
+
+    /**
+     * Records one call.
+     * @param startNanos The value of {@link System#nanoTime} when the call started.
+     * @param rows The number of rows the call affected.
+     */
+    void record(long startNanos, long rows) {
+        long nanos = System.nanoTime() - startNanos;
+        if (mCount == mNanos.length) {
+            mNanos = Arrays.copyOf(mNanos, mCount * 2);
+        }
+        mNanos[mCount++] = nanos;
+        mRows += rows;
+    }
+
+    /**
+     * Returns the results as a JSON object on one line. Throughput is in rows per second, and
+     * the percentiles are of the call latency in microseconds.
+     */
+    String toJson() {
+        long[] sorted = Arrays.copyOf(mNanos, mCount);
+        Arrays.sort(sorted);
+        long totalNanos = 0;
+        for (long nanos : sorted) {
+            totalNanos += nanos;
+        }
+        return String.format(Locale.US,
+                "{\"operation\":\"%s\",\"table_rows\":%d,\"calls\":%d,\"rows\":%d," +
+                        "\"total_ms\":%.3f,\"rows_per_sec\":%.1f,\"calls_per_sec\":%.1f," +
+                        "\"p50_us\":%.1f,\"p95_us\":%.1f,\"p99_us\":%.1f,\"max_us\":%.1f}",
+                mOperation, mTableRows, mCount, mRows,
+                totalNanos / 1e6, perSecond(mRows, totalNanos), perSecond(mCount, totalNanos),
+                percentileMicros(sorted, 0.50), percentileMicros(sorted, 0.95),
+                percentileMicros(sorted, 0.99), percentileMicros(sorted, 1.0));
+    }
+
+    private static double perSecond(long count, long nanos) {
+        return nanos == 0 ? 0 : count * 1e9 / nanos;
+    }
+
+    /**
+     * Returns the value at the percentile p, between 0 and 1, of sorted nanosecond values in
+     * microseconds.
+     */
+    private static double percentileMicros(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int index = Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1000.0;
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.rottentomatillos.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * This is the movie database as TomatilloDBHelper creates it, with the statements
+ * TomatilloProvider runs for each of its operations, over a JDBC connection. The schema is taken
+ * from the prebuilt database the app installs, whose schema the app's TomatilloDBHelperTest
+ * checks against TomatilloDBHelper. The SQL must be kept in step with TomatilloProvider, or the
+ * benchmark measures something else.
+ */
+class MovieDatabase {
+    private final Connection mConnection;
+    private final PreparedStatement mInsert;
+    private final PreparedStatement mQueryAll;
+    private final PreparedStatement mQueryById;
+    private final PreparedStatement mUpdateById;
+    private final PreparedStatement mUpdateByRating;
+    private final PreparedStatement mDeleteById;
+
+    /**
+     * Creates a new, empty database in file, with the schema of template.
+     * @param template The prebuilt database built by the app's generateCatalogDatabase task.
+     * @param writeAheadLogging Whether to use write-ahead logging, as the app does when
+     *                          use_write_ahead_logging is set. Otherwise the journal is set up
+     *                          the way Android sets it up by default.
+     */
+    MovieDatabase(File file, File template, boolean writeAheadLogging)
+            throws IOException, SQLException {
+        copy(template, file);
+        mConnection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+        Statement statement = mConnection.createStatement();
+        try {
+            statement.execute(writeAheadLogging
+                    ? "PRAGMA journal_mode = WAL" : "PRAGMA journal_mode = TRUNCATE");
+            statement.execute(writeAheadLogging
+                    ? "PRAGMA synchronous = NORMAL" : "PRAGMA synchronous = FULL");
+            // The triggers empty the search index and zero the rating statistics along with the
+            // movies, and the vacuum leaves no free pages behind for the inserts to reuse.
+            statement.execute("DELETE FROM movie");
+            statement.execute("VACUUM");
+        } finally {
+            statement.close();
+        }
+
+        mInsert = mConnection.prepareStatement(
+                "INSERT OR IGNORE INTO movie (title, rating) VALUES (?, ?)");
+        mQueryAll = mConnection.prepareStatement("SELECT _id, title, rating FROM movie");
+        mQueryById = mConnection.prepareStatement(
+                "SELECT _id, title, rating FROM movie WHERE _id = ?");
+        mUpdateById = mConnection.prepareStatement("UPDATE movie SET rating = ? WHERE _id = ?");
+        mUpdateByRating = mConnection.prepareStatement(
+                "UPDATE movie SET rating = ? WHERE rating = ?");
+        mDeleteById = mConnection.prepareStatement("DELETE FROM movie WHERE _id = ?");
+    }
+
+    /**
+     * Inserts one movie in its own transaction, as insert does.
+     */
+    void insert(String title, int rating) throws SQLException {
+        mInsert.setString(1, title);
+        mInsert.setInt(2, rating);
+        mInsert.executeUpdate();
+    }
+
+    /**
+     * Inserts count movies with unique titles, starting at offset, in one transaction, as
+     * bulkInsert does.
+     */
+    void bulkInsert(int offset, int count) throws SQLException {
+        mConnection.setAutoCommit(false);
+        try {
+            for (int i = offset; i < offset + count; i++) {
+                mInsert.setString(1, title(i));
+                mInsert.setInt(2, rating(i));
+                mInsert.executeUpdate();
+            }
+            mConnection.commit();
+        } catch (SQLException e) {
+            mConnection.rollback();
+            throw e;
+        } finally {
+            mConnection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Reads every movie, as a query of the movie URI with the list's projection does, and
+     * returns the number read.
+     */
+    int queryAll() throws SQLException {
+        return readAll(mQueryAll);
+    }
+
+    /**
+     * Reads the movie with id, as a query of a movie's URI does when it is not cached, and
+     * returns the number read.
+     */
+    int queryById(long id) throws SQLException {
+        mQueryById.setLong(1, id);
+        return readAll(mQueryById);
+    }
+
+    /**
+     * Sets the rating of the movie with id, as setRating does, and returns the rows changed.
+     */
+    int updateById(long id, int rating) throws SQLException {
+        mUpdateById.setInt(1, rating);
+        mUpdateById.setLong(2, id);
+        return mUpdateById.executeUpdate();
+    }
+
+    /**
+     * Changes every rating of oldRating to newRating, as an update of the movie URI with a
+     * selection does, and returns the rows changed.
+     */
+    int updateByRating(int oldRating, int newRating) throws SQLException {
+        mUpdateByRating.setInt(1, newRating);
+        mUpdateByRating.setInt(2, oldRating);
+        return mUpdateByRating.executeUpdate();
+    }
+
+    /**
+     * Copies the rating of every movie aside, for {@link #restoreRatings}.
+     */
+    void saveRatings() throws SQLException {
+        execute("CREATE TEMP TABLE saved_rating (_id INTEGER PRIMARY KEY, " +
+                "rating INTEGER NOT NULL)");
+        execute("INSERT INTO saved_rating SELECT _id, rating FROM movie");
+    }
+
+    /**
+     * Puts back the ratings copied by {@link #saveRatings}. The triggers keep rating_stats in
+     * step.
+     */
+    void restoreRatings() throws SQLException {
+        execute("UPDATE movie SET rating = " +
+                "(SELECT rating FROM saved_rating WHERE saved_rating._id = movie._id)");
+        execute("DROP TABLE saved_rating");
+    }
+
+    /**
+     * Deletes the movie with id, as a delete of a movie's URI does, and returns the rows
+     * changed.
+     */
+    int deleteById(long id) throws SQLException {
+        mDeleteById.setLong(1, id);
+        return mDeleteById.executeUpdate();
+    }
+
+    private void execute(String sql) throws SQLException {
+        Statement statement = mConnection.createStatement();
+        try {
+            statement.execute(sql);
+        } finally {
+            statement.close();
+        }
+    }
+
+    void close() throws SQLException {
+        mConnection.close();
+    }
+
+    /**
+     * Returns the title of the movie numbered i. Titles are unique.
+     */
+    static String title(int i) {
+        return "Movie " + i;
+    }
+
+    /**
+     * Returns the rating of the movie numbered i.
+     */
+    static int rating(int i) {
+        return 1 + i % 5;
+    }
+
+    private static int readAll(PreparedStatement query) throws SQLException {
+        ResultSet rows = query.executeQuery();
+        try {
+            int count = 0;
+            while (rows.next()) {
+                // Read every column, as filling a cursor window does.
+                rows.getLong(1);
+                rows.getString(2);
+                rows.getInt(3);
+                count++;
+            }
+            return count;
+        } finally {
+            rows.close();
+        }
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        InputStream in = new FileInputStream(from);
+        try {
+            OutputStream out = new FileOutputStream(to);
+            try {
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.rottentomatillos.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This benchmarks each operation of TomatilloProvider against tables of 10k, 100k and 1M movies,
+ * using {@link MovieDatabase}. Each result is printed as a JSON object on its own line, see
+ * {@link Latencies#toJson}, so runs can be collected and compared by a script.
+ * <p>
+ * Arguments, all optional:
+ * <ul>
+ *     <li>--rows 10000,100000: the table sizes to run at.</li>
+ *     <li>--samples 10000: the number of calls timed for the single row operations.</li>
+ *     <li>--wal: use write-ahead logging.</li>
+ *     <li>--output results.json: also write the results to a file.</li>
+ * </ul>
+ * The catalogDatabase system property must name the app's prebuilt database, which the run task
+ * in benchmark/build.gradle generates and sets.
+ */
+public class ProviderBenchmark {
+    private static final int[] DEFAULT_ROW_COUNTS = new int[]{10000, 100000, 1000000};
+    private static final int DEFAULT_SAMPLES = 10000;
+
+    /**
+     * Movies are bulk inserted in batches of this size, as the app's ProviderBenchmark does.
+     */
+    private static final int BATCH_SIZE = 10000;
+    /**
+     * The number of times the operations that touch the whole table are timed.
+     */
+    private static final int TABLE_PASSES = 5;
+
+    /**
+     * The system property naming the prebuilt database whose schema the benchmark uses.
+     */
+    private static final String CATALOG_DATABASE_PROPERTY = "catalogDatabase";
+
+    public static void main(String[] args) throws Exception {
+        int[] rowCounts = DEFAULT_ROW_COUNTS;
+        int samples = DEFAULT_SAMPLES;
+        boolean writeAheadLogging = false;
+        String output = null;
+        for (int i = 0; i < args.length; i++) {
+            if ("--rows".equals(args[i])) {
+                String[] values = args[++i].split(",");
+                rowCounts = new int[values.length];
+                for (int j = 0; j < values.length; j++) {
+                    rowCounts[j] = Integer.parseInt(values[j].trim());
+                }
+            } else if ("--samples".equals(args[i])) {
+                samples = Integer.parseInt(args[++i]);
+            } else if ("--wal".equals(args[i])) {
+                writeAheadLogging = true;
+            } else if ("--output".equals(args[i])) {
+                output = args[++i];
+            } else {
+                throw new IllegalArgumentException("Unknown argument: " + args[i]);
+            }
+        }
+
+        String catalogDatabase = System.getProperty(CATALOG_DATABASE_PROPERTY);
+        if (catalogDatabase == null) {
+            throw new IllegalArgumentException("Set " + CATALOG_DATABASE_PROPERTY +
+                    " to the prebuilt database, or run the benchmark through Gradle");
+        }
+        File template = new File(catalogDatabase);
+
+        List<String> results = new ArrayList<String>();
+        File file = File.createTempFile("tomatillo_benchmark", ".db");
+        try {
+            for (int rowCount : rowCounts) {
+                MovieDatabase db = new MovieDatabase(file, template, writeAheadLogging);
+                try {
+                    for (Latencies latencies : run(db, rowCount, samples)) {
+                        String json = latencies.toJson();
+                        System.out.println(json);
+                        results.add(json);
+                    }
+                } finally {
+                    db.close();
+                }
+            }
+        } finally {
+            file.delete();
+            new File(file.getPath() + "-journal").delete();
+            new File(file.getPath() + "-wal").delete();
+            new File(file.getPath() + "-shm").delete();
+        }
+
+        if (output != null) {
+            write(new File(output), results);
+        }
+    }
+
+    /**
+     * Fills db with rowCount movies and times every operation against it. The table is back to
+     * rowCount movies after each operation, so they all run against the same size.
+     */
+    private static List<Latencies> run(MovieDatabase db, int rowCount, int samples)
+            throws SQLException {
+        List<Latencies> results = new ArrayList<Latencies>();
+        Random random = new Random(rowCount);
+
+        Latencies bulkInsert = new Latencies("bulkInsert", rowCount, rowCount / BATCH_SIZE + 1);
+        for (int offset = 0; offset < rowCount; offset += BATCH_SIZE) {
+            int count = Math.min(BATCH_SIZE, rowCount - offset);
+            long start = System.nanoTime();
+            db.bulkInsert(offset, count);
+            bulkInsert.record(start, count);
+        }
+        results.add(bulkInsert);
+
+        Latencies queryAll = new Latencies("queryAll", rowCount, TABLE_PASSES);
+        for (int pass = 0; pass < TABLE_PASSES; pass++) {
+            long start = System.nanoTime();
+            int rows = db.queryAll();
+            queryAll.record(start, rows);
+        }
+        results.add(queryAll);
+
+        Latencies queryById = new Latencies("queryById", rowCount, samples);
+        for (int i = 0; i < samples; i++) {
+            long id = 1 + random.nextInt(rowCount);
+            long start = System.nanoTime();
+            int rows = db.queryById(id);
+            queryById.record(start, rows);
+        }
+        results.add(queryById);
+
+        Latencies updateById = new Latencies("updateById", rowCount, samples);
+        for (int i = 0; i < samples; i++) {
+            int index = random.nextInt(rowCount);
+            long start = System.nanoTime();
+            // The new rating differs from the one the movie was inserted with.
+            int rows = db.updateById(index + 1, MovieDatabase.rating(index + 1));
+            updateById.record(start, rows);
+        }
+        results.add(updateById);
+
+        // Each pass moves the movies of one rating to the rating above, starting from 4 so every
+        // pass changes the movies of a single rating, about a fifth of the table. Ratings stay
+        // between 1 and 5, and are put back untimed so the later steps run on the same movies.
+        db.saveRatings();
+        Latencies updateBySelection = new Latencies("updateBySelection", rowCount, 4);
+        for (int rating = 4; rating >= 1; rating--) {
+            long start = System.nanoTime();
+            int rows = db.updateByRating(rating, rating + 1);
+            updateBySelection.record(start, rows);
+        }
+        db.restoreRatings();
+        results.add(updateBySelection);
+
+        Latencies insert = new Latencies("insert", rowCount, samples);
+        for (int i = 0; i < samples; i++) {
+            long start = System.nanoTime();
+            db.insert(MovieDatabase.title(rowCount + i), MovieDatabase.rating(i));
+            insert.record(start, 1);
+        }
+        results.add(insert);
+
+        // Deletes as many movies as were inserted, spread over the whole table.
+        Latencies deleteById = new Latencies("deleteById", rowCount, samples);
+        long tableSize = rowCount + samples;
+        for (int i = 0; i < samples; i++) {
+            long id = 1 + i * tableSize / samples;
+            long start = System.nanoTime();
+            int rows = db.deleteById(id);
+            deleteById.record(start, rows);
+        }
+        results.add(deleteById);
+
+        return results;
+    }
+
+    private static void write(File file, List<String> results) throws IOException {
+        PrintWriter writer = new PrintWriter(
+                new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            for (String result : results) {
+                writer.println(result);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}